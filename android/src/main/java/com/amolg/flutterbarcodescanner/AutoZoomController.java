@@ -0,0 +1,175 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zooms in on barcodes which are too small in the frame to be decoded reliably, e.g., labels on
+ * the upper shelves of a warehouse rack, and zooms back out once they have left the view.
+ * <p/>
+ * The target is the detected barcode closest to the center of the frame.  While it covers less
+ * than a minimum fraction of the frame, the zoom is stepped up by about a third at a time; above
+ * a maximum fraction, it is stepped back down.  Camera zoom is centered, so a step is only taken
+ * if the target stays within the view after it.  Every step waits for the camera to settle, as
+ * the frames in flight still show the old zoom and focus has to catch up.  Once no barcode has
+ * been seen for a while, the zoom is reset.
+ * <p/>
+ * A zoom level set by someone else, e.g., a pinch gesture, is left alone until the barcodes in
+ * view are gone.
+ */
+final class AutoZoomController implements CameraSource.DetectionController {
+    // the target is zoomed in on below the first fraction of the frame, and out of above the other
+    private static final float MIN_TARGET_FRACTION = 0.15f;
+    private static final float MAX_TARGET_FRACTION = 0.5f;
+    // each step changes the zoom ratio by at most this factor
+    private static final float STEP_RATIO = 1.35f;
+    // margin the target keeps from the edges of the view after a step, as a fraction of the view
+    private static final float EDGE_MARGIN = 0.05f;
+    private static final long SETTLE_MILLIS = 600;
+    // the zoom is reset once no barcode has been seen for this long
+    private static final long TARGET_LOST_MILLIS = 1500;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final Rect mTarget = new Rect();
+    // the zoom level last set by this controller
+    private int mLevel;
+    // set while a zoom level chosen by someone else is kept
+    private boolean mManual;
+    private long mLastChangeMillis;
+    private long mLastSeenMillis;
+    private long mSteps;
+    private long mResets;
+    private long mBlocked;
+
+    @Override
+    public void onFrameDetected(CameraSource source, SparseArray<?> detections, int frameWidth,
+                                int frameHeight) {
+        List<Integer> ratios = source.getZoomRatios();
+        if (ratios == null || ratios.size() < 2 || frameWidth <= 0 || frameHeight <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            int zoom = source.getZoom();
+            if (zoom != mLevel) {
+                // zoomed by someone else, or a new camera which starts out unzoomed
+                mManual = zoom != 0;
+                mLevel = zoom;
+            }
+
+            if (!findTarget(detections, frameWidth, frameHeight, mTarget)) {
+                if (now - mLastSeenMillis >= TARGET_LOST_MILLIS) {
+                    if (!mManual && mLevel > 0) {
+                        mLevel = source.setZoom(0, null);
+                        mLastChangeMillis = now;
+                        ++mResets;
+                    }
+                    mManual = false;
+                }
+                return;
+            }
+            mLastSeenMillis = now;
+            if (mManual || now - mLastChangeMillis < SETTLE_MILLIS) {
+                return;
+            }
+
+            float size = Math.max((float) mTarget.width() / frameWidth,
+                    (float) mTarget.height() / frameHeight);
+            int next = mLevel;
+            if (size < MIN_TARGET_FRACTION && mLevel < ratios.size() - 1) {
+                next = stepIn(ratios, mLevel);
+                if (!staysInView(frameWidth, frameHeight,
+                        (float) ratios.get(mLevel) / ratios.get(next))) {
+                    ++mBlocked;
+                    return;
+                }
+            } else if (size > MAX_TARGET_FRACTION && mLevel > 0) {
+                next = stepOut(ratios, mLevel);
+            }
+            if (next != mLevel) {
+                mLevel = source.setZoom(next, null);
+                mLastChangeMillis = now;
+                ++mSteps;
+            }
+        }
+    }
+
+    /**
+     * Sets the target to the bounding box of the barcode closest to the frame center, and returns
+     * false if there is none.
+     */
+    static boolean findTarget(SparseArray<?> detections, int frameWidth, int frameHeight,
+                              Rect target) {
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < detections.size(); ++i) {
+            Object item = detections.valueAt(i);
+            if (!(item instanceof Barcode) || ((Barcode) item).cornerPoints == null) {
+                continue;
+            }
+            Rect box = ((Barcode) item).getBoundingBox();
+            long dx = 2L * box.centerX() - frameWidth;
+            long dy = 2L * box.centerY() - frameHeight;
+            long distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                target.set(box);
+            }
+        }
+        return bestDistance != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the target is still within the view, with a margin, once the view shrinks
+     * around its center to the given fraction.
+     */
+    private boolean staysInView(int frameWidth, int frameHeight, float viewFraction) {
+        float half = 0.5f * viewFraction * (1.0f - 2.0f * EDGE_MARGIN);
+        return mTarget.left >= (0.5f - half) * frameWidth
+                && mTarget.right <= (0.5f + half) * frameWidth
+                && mTarget.top >= (0.5f - half) * frameHeight
+                && mTarget.bottom <= (0.5f + half) * frameHeight;
+    }
+
+    /**
+     * Returns the highest level within one step above the given one, or the next level if that
+     * is already further away.
+     */
+    private static int stepIn(List<Integer> ratios, int level) {
+        float limit = ratios.get(level) * STEP_RATIO;
+        int next = level + 1;
+        while (next + 1 < ratios.size() && ratios.get(next + 1) <= limit) {
+            ++next;
+        }
+        return next;
+    }
+
+    private static int stepOut(List<Integer> ratios, int level) {
+        float limit = ratios.get(level) / STEP_RATIO;
+        int next = level - 1;
+        while (next > 0 && ratios.get(next - 1) >= limit) {
+            --next;
+        }
+        return next;
+    }
+
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("level", mLevel);
+            map.put("manual", mManual);
+            map.put("steps", mSteps);
+            map.put("resets", mResets);
+            map.put("blocked", mBlocked);
+            return map;
+        }
+    }
+}
@@ -49,14 +49,19 @@ import android.widget.Toast;
 import com.amolg.flutterbarcodescanner.camera.CameraSource;
 import com.amolg.flutterbarcodescanner.camera.CameraSourcePreview;
 import com.amolg.flutterbarcodescanner.camera.GraphicOverlay;
+import com.amolg.flutterbarcodescanner.camera.LightingController;
+import com.amolg.flutterbarcodescanner.camera.PreviewBufferPool;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
-import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.flutter.embedding.android.FlutterFragment;
 import io.flutter.embedding.android.FlutterView;
@@ -80,13 +85,23 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
     // permission request codes need to be < 256
     private static final int RC_HANDLE_CAMERA_PERM = 2;
 
-    // constants used to pass extra data in the intent
-    public static final String BarcodeObject = "Barcode";
+    // the scanner on screen, for changing its scan mode from the plugin
+    private static WeakReference<BarcodeCaptureActivity> sRunning = new WeakReference<>(null);
 
     private CameraSource mCameraSource;
     private CameraSourcePreview mPreview;
+    private int mFormats;
+
+    // preview buffers are shared by the camera sources created when switching cameras.
+    private final PreviewBufferPool mBufferPool = new PreviewBufferPool(0);
     private GraphicOverlay<BarcodeGraphic> mGraphicOverlay;
 
+    // batches the continuous results of this scan, taken from the plugin when created.
+    private ResultBatcher mResults;
+
+    // set once the result of a single scan has been handed to the plugin.
+    private final AtomicBoolean mResultDelivered = new AtomicBoolean();
+
     // helper objects for detecting taps and pinches.
     private ScaleGestureDetector scaleGestureDetector;
     private GestureDetector gestureDetector;
@@ -117,6 +132,7 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        mResults = FlutterBarcodeScannerPlugin.activityResults;
         try {
             setContentView(R.layout.barcode_capture);
 
@@ -148,6 +164,7 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         }
         mPreview = findViewById(R.id.preview);
         mGraphicOverlay = findViewById(R.id.graphicOverlay);
+        sRunning = new WeakReference<>(this);
 
         // read parameters from the intent used to launch the activity.
         boolean autoFocus = true;
@@ -246,10 +263,29 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         // is set to receive the barcode detection results, track the barcodes, and maintain
         // graphics for each barcode on screen.  The factory is used by the multi-processor to
         // create a separate tracker instance for each barcode.
-        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(context).build();
+        final int formats = FlutterBarcodeScannerPlugin.barcodeFormats;
+        mFormats = formats;
         BarcodeTrackerFactory barcodeFactory = new BarcodeTrackerFactory(mGraphicOverlay, this);
-        barcodeDetector.setProcessor(
-                new MultiProcessor.Builder<>(barcodeFactory).build());
+
+        // Stop & release current camera source before creating a new one.
+        if (mCameraSource != null) {
+            mResults.cancelBlocked();
+            mCameraSource.stop();
+            mCameraSource.release();
+            mCameraSource = null;
+        }
+
+        // Take over a scanner prepared ahead of time, whose camera is already open.
+        CameraSource prepared = autoFocus && !useFlash
+                ? ScannerWarmUp.getInstance().take(formats, cameraFacing, barcodeFactory) : null;
+        if (prepared != null) {
+            mCameraSource = prepared;
+            onCameraSourceCreated(autoFocus);
+            return;
+        }
+
+        BarcodeDetector barcodeDetector = ScannerPipeline.createDetector(context, formats);
+        MultiProcessor<Barcode> processor = new MultiProcessor.Builder<>(barcodeFactory).build();
 
         if (!barcodeDetector.isOperational()) {
             // Check for low storage.  If there is low storage, the native library will not be
@@ -262,13 +298,10 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
             }
         }
 
-        // Creates and starts the camera.  Note that this uses a higher resolution in comparison
-        // to other detection examples to enable the barcode detector to detect small barcodes
-        // at long distances.
-        CameraSource.Builder builder = new CameraSource.Builder(getApplicationContext(), barcodeDetector)
+        // Creates and starts the camera.
+        CameraSource.Builder builder = ScannerPipeline.newCameraSourceBuilder(context,
+                barcodeDetector, formats, processor, mBufferPool)
                 .setFacing(cameraFacing)
-                .setRequestedPreviewSize(1600, 1024)
-                .setRequestedFps(30.0f)
                 .setFlashMode(useFlash ? Camera.Parameters.FLASH_MODE_TORCH : null);
 
         // make sure that auto focus is an available option
@@ -277,12 +310,35 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
                     autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null);
         }
 
-        // Stop & release current camera source before creating a new one.
-        if (mCameraSource != null) {
-            mCameraSource.stop();
-            mCameraSource.release();
-        }
         mCameraSource = builder.build();
+        onCameraSourceCreated(autoFocus);
+    }
+
+    /**
+     * Attaches the focus controller along with auto focus, and the auto zoom if it was requested,
+     * lets the lighting controller switch the torch if requested, and reports the statistics of
+     * the new camera source.
+     */
+    private void onCameraSourceCreated(boolean autoFocus) {
+        FocusController focus = null;
+        if (autoFocus) {
+            focus = new FocusController();
+            mCameraSource.addDetectionController(focus);
+        }
+        AutoZoomController autoZoom = null;
+        if (FlutterBarcodeScannerPlugin.isAutoZoom) {
+            autoZoom = new AutoZoomController();
+            mCameraSource.addDetectionController(autoZoom);
+        }
+        LightingController lighting = mCameraSource.getLightingController();
+        if (lighting != null) {
+            lighting.setAutoTorch(FlutterBarcodeScannerPlugin.isAutoTorch);
+            lighting.setListener(this::setFlashStatus);
+        }
+        ScannerStats.getInstance().setCameraSource(mCameraSource);
+        ScannerStats.getInstance().setFocusController(focus);
+        ScannerStats.getInstance().setAutoZoomController(autoZoom);
+        ScannerStats.getInstance().setResultBatcher(mResults);
     }
 
     /**
@@ -300,6 +356,8 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
     @Override
     protected void onPause() {
         super.onPause();
+        // stopping waits for the detection threads, which must not wait for this thread
+        mResults.cancelBlocked();
         if (mPreview != null) {
             mPreview.stop();
         }
@@ -312,6 +370,16 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (sRunning.get() == this) {
+            sRunning.clear();
+        }
+        if (mCameraSource != null) {
+            LightingController lighting = mCameraSource.getLightingController();
+            if (lighting != null) {
+                lighting.setListener(null);
+            }
+            ScannerStats.getInstance().endSession(mCameraSource);
+        }
         if (mPreview != null) {
             mPreview.release();
         }
@@ -369,15 +437,18 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
      * again when the camera source is created.
      */
     private void startCameraSource() throws SecurityException {
-        // check that the device has play services available.
-        int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(
-                getApplicationContext());
-        if (code != ConnectionResult.SUCCESS) {
-            Dialog dlg = GoogleApiAvailability.getInstance().getErrorDialog(this, code, RC_HANDLE_GMS);
-            dlg.show();
+        // check that the device has play services available, unless a prepared scanner did.
+        if (!ScannerWarmUp.getInstance().isPlayServicesAvailable()) {
+            int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(
+                    getApplicationContext());
+            if (code != ConnectionResult.SUCCESS) {
+                Dialog dlg = GoogleApiAvailability.getInstance().getErrorDialog(this, code, RC_HANDLE_GMS);
+                dlg.show();
+            }
         }
 
         if (mCameraSource != null) {
+            mResults.resumeBlocking();
             try {
                 mPreview.start(mCameraSource, mGraphicOverlay);
             } catch (IOException e) {
@@ -407,6 +478,10 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         float bestDistance = Float.MAX_VALUE;
         for (BarcodeGraphic graphic : mGraphicOverlay.getGraphics()) {
             Barcode barcode = graphic.getBarcode();
+            if (barcode == null) {
+                // released while this snapshot of the graphics was taken
+                continue;
+            }
             if (barcode.getBoundingBox().contains((int) x, (int) y)) {
                 // Exact hit, no need to keep looking.
                 best = barcode;
@@ -422,10 +497,7 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         }
 
         if (best != null) {
-            Intent data = new Intent();
-            data.putExtra(BarcodeObject, best);
-            setResult(CommonStatusCodes.SUCCESS, data);
-            finish();
+            deliverResult(ScanResults.toMap(best, null));
             return true;
         }
         return false;
@@ -437,14 +509,14 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         if (i == R.id.imgViewBarcodeCaptureUseFlash &&
                 getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH)) {
             try {
-                if (flashStatus == USE_FLASH.OFF.ordinal()) {
-                    flashStatus = USE_FLASH.ON.ordinal();
-                    imgViewBarcodeCaptureUseFlash.setImageResource(R.drawable.flash_on);
-                    turnOnOffFlashLight(true);
-                } else {
-                    flashStatus = USE_FLASH.OFF.ordinal();
-                    imgViewBarcodeCaptureUseFlash.setImageResource(R.drawable.flash_off);
-                    turnOnOffFlashLight(false);
+                boolean on = flashStatus == USE_FLASH.OFF.ordinal();
+                setFlashStatus(on);
+                turnOnOffFlashLight(on);
+                LightingController lighting =
+                        mCameraSource == null ? null : mCameraSource.getLightingController();
+                if (lighting != null) {
+                    // auto torch leaves the torch to the user from now on
+                    lighting.onTorchSetByUser();
                 }
             } catch (Exception e) {
                 Toast.makeText(this, "Unable to turn on flash", Toast.LENGTH_SHORT).show();
@@ -454,14 +526,57 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
             Barcode barcode = new Barcode();
             barcode.rawValue = "-1";
             barcode.displayValue = "-1";
-            FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(barcode);
+            FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(mResults, barcode, null);
             finish();
-        } else if (i == R.id.imgViewSwitchCamera) {
-            int currentFacing = mCameraSource.getCameraFacing();
-            boolean autoFocus = mCameraSource.getFocusMode() != null;
-            boolean useFlash = flashStatus == USE_FLASH.ON.ordinal();
-            createCameraSource(autoFocus, useFlash, getInverseCameraFacing(currentFacing));
-            startCameraSource();
+        } else if (i == R.id.imgViewSwitchCamera && mCameraSource != null) {
+            // only the camera is reopened; the detectors, trackers and buffers are kept
+            int facing = getInverseCameraFacing(mCameraSource.getCameraFacing());
+            try {
+                // the camera opens with the focus mode the source was built with, which the
+                // focus controller takes over from again
+                mPreview.reconfigure(new CameraSource.Reconfiguration().setFacing(facing));
+                // the other camera may have lacked the torch, so it is requested again
+                if (flashStatus == USE_FLASH.ON.ordinal()) {
+                    mCameraSource.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+                }
+            } catch (IOException e) {
+                Toast.makeText(this, "Unable to switch camera", Toast.LENGTH_SHORT).show();
+                Log.e("BarcodeCaptureActivity", "SwitchCameraFailure: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Switches the scanner on screen, if any, to the given scan mode and barcode formats without
+     * restarting it.  Returns false if no scanner is on screen.
+     */
+    static boolean applyScanMode(final int scanMode, final int formats) {
+        final BarcodeCaptureActivity activity = sRunning.get();
+        if (activity == null) {
+            return false;
+        }
+        activity.runOnUiThread(() -> activity.setScanMode(scanMode, formats));
+        return true;
+    }
+
+    private void setScanMode(int scanMode, int formats) {
+        SCAN_MODE = scanMode;
+        mGraphicOverlay.setScanMode(scanMode);
+        if (mCameraSource == null) {
+            return;
+        }
+        mCameraSource.setScanWindow(mGraphicOverlay.getScanWindow());
+        if (formats == mFormats) {
+            return;
+        }
+        mFormats = formats;
+        try {
+            mCameraSource.reconfigure(
+                    ScannerPipeline.newDetectorReconfiguration(getApplicationContext(),
+                            mCameraSource, formats));
+        } catch (IOException e) {
+            // not thrown, as the camera is not reopened for new detectors
+            Log.e("BarcodeCaptureActivity", "ScanModeFailure: " + e.getLocalizedMessage());
         }
     }
 
@@ -478,6 +593,16 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
         return CameraSource.CAMERA_FACING_BACK;
     }
 
+    /**
+     * Shows the torch state on the flash icon; also called when the lighting controller switched
+     * the torch.
+     */
+    private void setFlashStatus(boolean on) {
+        flashStatus = on ? USE_FLASH.ON.ordinal() : USE_FLASH.OFF.ordinal();
+        imgViewBarcodeCaptureUseFlash.setImageResource(
+                on ? R.drawable.flash_on : R.drawable.flash_off);
+    }
+
     /**
      * Turn on and off flash light based on flag
      *
@@ -489,7 +614,12 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
                 String flashMode = "";
                 flashMode = isFlashToBeTurnOn ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF;
 
-                mCameraSource.setFlashMode(flashMode);
+                // applied on the camera control thread; failures are reported back here
+                mCameraSource.setFlashMode(flashMode, success -> {
+                    if (!success) {
+                        Toast.makeText(getBaseContext(), "Unable to access flashlight.", Toast.LENGTH_SHORT).show();
+                    }
+                });
             } else {
                 Toast.makeText(getBaseContext(), "Unable to access flashlight as flashlight not available", Toast.LENGTH_SHORT).show();
             }
@@ -560,16 +690,24 @@ public final class BarcodeCaptureActivity extends AppCompatActivity implements B
     }
 
     @Override
-    public void onBarcodeDetected(Barcode barcode) {
+    public void onBarcodeDetected(Barcode barcode, Frame.Metadata metadata) {
         if (null != barcode) {
+            Map<String, Object> result = ScanResults.toMap(barcode, metadata);
             if (FlutterBarcodeScannerPlugin.isContinuousScan) {
-                FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(barcode);
-            } else {
-                Intent data = new Intent();
-                data.putExtra(BarcodeObject, barcode);
-                setResult(CommonStatusCodes.SUCCESS, data);
-                finish();
+                FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(mResults, barcode, result);
+            } else if (mResultDelivered.compareAndSet(false, true)) {
+                runOnUiThread(() -> deliverResult(result));
             }
         }
     }
+
+    /**
+     * Completes a single scan with the given result and closes the scanner.  The result is handed
+     * to the plugin before finishing, so that it is never taken for a cancelled scan.
+     */
+    private void deliverResult(Map<String, Object> result) {
+        mResultDelivered.set(true);
+        FlutterBarcodeScannerPlugin.onScanResult(result);
+        finish();
+    }
 }
\ No newline at end of file
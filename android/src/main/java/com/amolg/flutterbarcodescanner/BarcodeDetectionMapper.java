@@ -0,0 +1,28 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Moves the corner points of barcodes detected on part of a camera frame back to full frame
+ * coordinates, so that graphics and tap handling work as if the whole frame had been scanned.
+ * The bounding box of a barcode is derived from its corner points.
+ */
+class BarcodeDetectionMapper implements CameraSource.DetectionMapper {
+    @Override
+    public void map(SparseArray<?> detections, float scale, int offsetX, int offsetY) {
+        for (int i = 0; i < detections.size(); ++i) {
+            Object item = detections.valueAt(i);
+            if (!(item instanceof Barcode) || ((Barcode) item).cornerPoints == null) {
+                continue;
+            }
+            for (Point point : ((Barcode) item).cornerPoints) {
+                point.x = Math.round(point.x * scale) + offsetX;
+                point.y = Math.round(point.y * scale) + offsetY;
+            }
+        }
+    }
+}
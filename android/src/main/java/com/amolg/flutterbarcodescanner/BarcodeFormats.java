@@ -0,0 +1,133 @@
+package com.amolg.flutterbarcodescanner;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.List;
+
+/**
+ * Maps the barcode format names sent from Dart, and the scan modes, onto the format flags of the
+ * barcode detector.  Restricting the detector to the formats actually printed saves it from
+ * searching every frame for a dozen other symbologies.
+ */
+final class BarcodeFormats {
+    private static final String[] NAMES = {
+            "CODE_128", "CODE_39", "CODE_93", "CODABAR", "DATA_MATRIX", "EAN_13", "EAN_8", "ITF",
+            "QR_CODE", "UPC_A", "UPC_E", "PDF417", "AZTEC"
+    };
+    private static final int[] FORMATS = {
+            Barcode.CODE_128, Barcode.CODE_39, Barcode.CODE_93, Barcode.CODABAR,
+            Barcode.DATA_MATRIX, Barcode.EAN_13, Barcode.EAN_8, Barcode.ITF, Barcode.QR_CODE,
+            Barcode.UPC_A, Barcode.UPC_E, Barcode.PDF417, Barcode.AZTEC
+    };
+
+    // linear (and stacked linear) symbologies scanned in BARCODE mode
+    private static final int LINEAR_FORMATS = Barcode.CODE_128 | Barcode.CODE_39 | Barcode.CODE_93
+            | Barcode.CODABAR | Barcode.EAN_13 | Barcode.EAN_8 | Barcode.ITF | Barcode.UPC_A
+            | Barcode.UPC_E | Barcode.PDF417;
+
+    private BarcodeFormats() {
+    }
+
+    /**
+     * Returns the detector formats for a list of format names, or {@link Barcode#ALL_FORMATS} if
+     * the list is empty or contains no known name.
+     */
+    static int fromNames(List<?> names) {
+        int formats = 0;
+        if (names != null) {
+            for (Object name : names) {
+                for (int i = 0; i < NAMES.length; ++i) {
+                    if (NAMES[i].equals(name)) {
+                        formats |= FORMATS[i];
+                    }
+                }
+            }
+        }
+        return formats == 0 ? Barcode.ALL_FORMATS : formats;
+    }
+
+    /**
+     * Returns the detector formats for the "formats" and "scanMode" arguments of a method call:
+     * the format list if one is given, or else the formats of the scan mode.  Without either,
+     * every format is read, as before formats could be chosen.
+     */
+    static int fromArguments(Object formatNames, Object scanMode) {
+        if (formatNames instanceof List && !((List<?>) formatNames).isEmpty()) {
+            return fromNames((List<?>) formatNames);
+        }
+        if (scanMode instanceof Integer) {
+            return forScanMode((Integer) scanMode);
+        }
+        return Barcode.ALL_FORMATS;
+    }
+
+    /**
+     * Returns the default detector formats for a scan mode, as sent from Dart.
+     */
+    static int forScanMode(int scanMode) {
+        if (scanMode == BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal()) {
+            return Barcode.QR_CODE;
+        }
+        if (scanMode == BarcodeCaptureActivity.SCAN_MODE_ENUM.BARCODE.ordinal()) {
+            return LINEAR_FORMATS;
+        }
+        return Barcode.ALL_FORMATS;
+    }
+
+    /**
+     * Returns the number of individual formats known.
+     */
+    static int count() {
+        return FORMATS.length;
+    }
+
+    /**
+     * Returns the position of a single format flag among the known formats, or -1.
+     */
+    static int indexOf(int format) {
+        for (int i = 0; i < FORMATS.length; ++i) {
+            if (FORMATS[i] == format) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the format at the given position among the known formats.
+     */
+    static String nameAt(int index) {
+        return NAMES[index];
+    }
+
+    /**
+     * Returns the name of a single format flag, as used on the Dart side.
+     */
+    static String name(int format) {
+        for (int i = 0; i < FORMATS.length; ++i) {
+            if (FORMATS[i] == format) {
+                return NAMES[i];
+            }
+        }
+        return "UNKNOWN";
+    }
+
+    /**
+     * Returns a readable description of a set of format flags, e.g. "QR_CODE|EAN_13".
+     */
+    static String describe(int formats) {
+        if (formats == Barcode.ALL_FORMATS) {
+            return "ALL_FORMATS";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < FORMATS.length; ++i) {
+            if ((formats & FORMATS[i]) != 0) {
+                if (builder.length() > 0) {
+                    builder.append('|');
+                }
+                builder.append(NAMES[i]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -38,26 +38,36 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
             Color.GREEN
     };
 
+    // One pair of paints per color, shared by all graphics; only used on the main thread.
+    private static final Paint[] RECT_PAINTS = new Paint[COLOR_CHOICES.length];
+    private static final Paint[] TEXT_PAINTS = new Paint[COLOR_CHOICES.length];
+
+    static {
+        for (int i = 0; i < COLOR_CHOICES.length; ++i) {
+            RECT_PAINTS[i] = new Paint();
+            RECT_PAINTS[i].setColor(COLOR_CHOICES[i]);
+            RECT_PAINTS[i].setStyle(Paint.Style.STROKE);
+            RECT_PAINTS[i].setStrokeWidth(4.0f);
+
+            TEXT_PAINTS[i] = new Paint();
+            TEXT_PAINTS[i].setColor(COLOR_CHOICES[i]);
+            TEXT_PAINTS[i].setTextSize(36.0f);
+        }
+    }
+
     private static int mCurrentColorIndex = 0;
 
-    private Paint mRectPaint;
-    private Paint mTextPaint;
+    private final Paint mRectPaint;
+    private final Paint mTextPaint;
+    private final RectF mRect = new RectF();
     private volatile Barcode mBarcode;
 
     BarcodeGraphic(GraphicOverlay overlay) {
         super(overlay);
 
         mCurrentColorIndex = (mCurrentColorIndex + 1) % COLOR_CHOICES.length;
-        final int selectedColor = COLOR_CHOICES[mCurrentColorIndex];
-
-        mRectPaint = new Paint();
-        mRectPaint.setColor(selectedColor);
-        mRectPaint.setStyle(Paint.Style.STROKE);
-        mRectPaint.setStrokeWidth(4.0f);
-
-        mTextPaint = new Paint();
-        mTextPaint.setColor(selectedColor);
-        mTextPaint.setTextSize(36.0f);
+        mRectPaint = RECT_PAINTS[mCurrentColorIndex];
+        mTextPaint = TEXT_PAINTS[mCurrentColorIndex];
     }
 
     public int getId() {
@@ -73,12 +83,10 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
     }
 
     /**
-     * Updates the barcode instance from the detection of the most recent frame.  Invalidates the
-     * relevant portions of the overlay to trigger a redraw.
+     * Updates the barcode instance from the detection of the most recent frame.
      */
     void updateItem(Barcode barcode) {
         mBarcode = barcode;
-        postInvalidate();
     }
 
     /**
@@ -92,7 +100,8 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
         }
 
         // Draws the bounding box around the barcode.
-        RectF rect = new RectF(barcode.getBoundingBox());
+        RectF rect = mRect;
+        rect.set(barcode.getBoundingBox());
         rect.left = translateX(rect.left);
         rect.top = translateY(rect.top);
         rect.right = translateX(rect.right);
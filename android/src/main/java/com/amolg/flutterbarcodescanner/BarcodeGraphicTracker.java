@@ -16,10 +16,12 @@
 package com.amolg.flutterbarcodescanner;
 
 import android.content.Context;
-import androidx.annotation.UiThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.amolg.flutterbarcodescanner.camera.GraphicOverlay;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 
@@ -35,13 +37,17 @@ public class BarcodeGraphicTracker extends Tracker<Barcode> {
 
     private BarcodeUpdateListener mBarcodeUpdateListener;
 
+    // Set for a new item until its first update, which carries the frame it was detected on.
+    private boolean mIsNew;
+
     /**
      * Consume the item instance detected from an Activity or Fragment level by implementing the
-     * BarcodeUpdateListener interface method onBarcodeDetected.
+     * BarcodeUpdateListener interface method onBarcodeDetected.  Called on the detector thread,
+     * together with the metadata of the frame the item was first detected on.
      */
     public interface BarcodeUpdateListener {
-        @UiThread
-        void onBarcodeDetected(Barcode barcode);
+        @WorkerThread
+        void onBarcodeDetected(Barcode barcode, @Nullable Frame.Metadata metadata);
     }
 
     BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> mOverlay, BarcodeGraphic mGraphic, Context context) {
@@ -55,12 +61,13 @@ public class BarcodeGraphicTracker extends Tracker<Barcode> {
     }
 
     /**
-     * Start tracking the detected item instance within the item overlay.
+     * Start tracking the detected item instance within the item overlay.  The item is reported
+     * on its first update, which immediately follows and carries the frame metadata.
      */
     @Override
     public void onNewItem(int id, Barcode item) {
         mGraphic.setId(id);
-        mBarcodeUpdateListener.onBarcodeDetected(item);
+        mIsNew = true;
     }
 
     /**
@@ -70,6 +77,10 @@ public class BarcodeGraphicTracker extends Tracker<Barcode> {
     public void onUpdate(Detector.Detections<Barcode> detectionResults, Barcode item) {
         mOverlay.add(mGraphic);
         mGraphic.updateItem(item);
+        if (mIsNew) {
+            mIsNew = false;
+            mBarcodeUpdateListener.onBarcodeDetected(item, detectionResults.getFrameMetadata());
+        }
     }
 
     /**
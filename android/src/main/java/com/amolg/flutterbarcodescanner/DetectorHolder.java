@@ -0,0 +1,125 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.content.Context;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.constants.AppConstants;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the native barcode detectors alive across scan sessions, so that back-to-back scans and
+ * camera switches skip initializing the detector.  Detectors are keyed by their configuration,
+ * i.e., the barcode formats.
+ * <p/>
+ * A detector is leased to one camera source at a time, since a native detector serializes
+ * concurrent calls.  A camera source hands its detectors back when it is released, and they wait
+ * for the next session with the same formats.  The idle detectors are only destroyed under memory
+ * pressure or when the plugin is detached; leased detectors are destroyed when they come back
+ * instead.
+ */
+final class DetectorHolder implements CameraSource.DetectorRecycler {
+    private static final DetectorHolder sInstance = new DetectorHolder();
+
+    // idle detectors kept per configuration, enough for one session with every worker
+    private static final int MAX_IDLE_PER_KEY = AppConstants.BARCODE_DETECTION_WORKERS_MAX;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final Map<Integer, ArrayDeque<BarcodeDetector>> mIdle = new HashMap<>();
+    // the configuration of every leased detector
+    private final Map<Detector<?>, Integer> mLeased = new IdentityHashMap<>();
+    private long mCreated;
+    private long mReused;
+
+    private DetectorHolder() {
+    }
+
+    static DetectorHolder getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Leases a detector for the given formats, reusing an idle one if there is one.  Building a
+     * new detector may load the native library, so this may block for a while.
+     */
+    BarcodeDetector acquire(Context context, int formats) {
+        synchronized (mLock) {
+            ArrayDeque<BarcodeDetector> idle = mIdle.get(formats);
+            BarcodeDetector detector = idle != null ? idle.pollFirst() : null;
+            if (detector != null) {
+                ++mReused;
+                mLeased.put(detector, formats);
+                return detector;
+            }
+        }
+
+        BarcodeDetector detector = new BarcodeDetector.Builder(context.getApplicationContext())
+                .setBarcodeFormats(formats)
+                .build();
+        synchronized (mLock) {
+            ++mCreated;
+            mLeased.put(detector, formats);
+        }
+        return detector;
+    }
+
+    /**
+     * Takes back a leased detector, keeping it for the next session.  Detectors which were not
+     * leased from this holder, or which exceed the idle limit, are destroyed.
+     */
+    @Override
+    public void recycle(Detector<?> detector) {
+        synchronized (mLock) {
+            Integer formats = mLeased.remove(detector);
+            if (formats != null && detector instanceof BarcodeDetector) {
+                ArrayDeque<BarcodeDetector> idle = mIdle.get(formats);
+                if (idle == null) {
+                    idle = new ArrayDeque<>();
+                    mIdle.put(formats, idle);
+                }
+                if (idle.size() < MAX_IDLE_PER_KEY) {
+                    idle.addFirst((BarcodeDetector) detector);
+                    return;
+                }
+            }
+        }
+        detector.release();
+    }
+
+    /**
+     * Destroys all idle detectors.  Leased detectors are unaffected.
+     */
+    void releaseIdle() {
+        ArrayDeque<BarcodeDetector> released = new ArrayDeque<>();
+        synchronized (mLock) {
+            for (ArrayDeque<BarcodeDetector> idle : mIdle.values()) {
+                released.addAll(idle);
+            }
+            mIdle.clear();
+        }
+        for (BarcodeDetector detector : released) {
+            detector.release();
+        }
+    }
+
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            int idle = 0;
+            for (ArrayDeque<BarcodeDetector> detectors : mIdle.values()) {
+                idle += detectors.size();
+            }
+            Map<String, Object> map = new HashMap<>();
+            map.put("created", mCreated);
+            map.put("reused", mReused);
+            map.put("leased", mLeased.size());
+            map.put("idle", idle);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Suppresses repeated barcodes in continuous scanning, before they are sent over the platform
+ * channel.  A barcode is dropped if the same value was seen within the cooldown; every sighting
+ * restarts the cooldown, so a label which keeps drifting in and out of view is only reported
+ * once.  The most recently seen values are kept in an LRU map of bounded capacity.
+ */
+final class DuplicateFilter {
+    private static final DuplicateFilter sInstance = new DuplicateFilter();
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private long mCooldownMillis;
+    private int mCapacity = DEFAULT_CAPACITY;
+    private long mHits;
+    private long mMisses;
+
+    // last sighting per value, least recently seen first
+    private final LinkedHashMap<String, Long> mLastSeen =
+            new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > mCapacity;
+                }
+            };
+
+    private DuplicateFilter() {
+    }
+
+    static DuplicateFilter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Sets the cooldown and the number of values remembered, and forgets all values seen so far.
+     * A cooldown of zero disables the filter.
+     */
+    void configure(long cooldownMillis, int capacity) {
+        synchronized (mLock) {
+            mCooldownMillis = Math.max(0, cooldownMillis);
+            mCapacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+            mLastSeen.clear();
+        }
+    }
+
+    /**
+     * Records a sighting of the given value, and returns true if it should be delivered, i.e.,
+     * if it was not seen within the cooldown.
+     */
+    boolean accept(String value) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            if (mCooldownMillis == 0) {
+                mMisses++;
+                return true;
+            }
+
+            Long lastSeen = mLastSeen.put(value, now);
+            if (lastSeen != null && now - lastSeen < mCooldownMillis) {
+                mHits++;
+                return false;
+            }
+            mMisses++;
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of suppressed (hits) and delivered (misses) values.
+     */
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("hits", mHits);
+            map.put("misses", mMisses);
+            map.put("size", mLastSeen.size());
+            map.put("capacity", mCapacity);
+            map.put("cooldownMillis", mCooldownMillis);
+            return map;
+        }
+    }
+}
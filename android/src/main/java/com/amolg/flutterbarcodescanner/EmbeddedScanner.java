@@ -0,0 +1,142 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.Manifest;
+import android.content.Context;
+import android.hardware.Camera;
+
+import androidx.annotation.RequiresPermission;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.PreviewBufferPool;
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.view.TextureRegistry;
+
+/**
+ * A scanner rendering the camera preview into a Flutter texture, so that Dart can show it inline
+ * instead of launching the scanner activity.  Uses the same detection pipeline as the activity;
+ * every newly tracked barcode is sent on the continuous scan result stream, through the result
+ * batcher of this scanner.
+ * <p/>
+ * The camera is only open between {@link #start()} and {@link #stop()}; pausing keeps it open
+ * and the preview live, but stops detection.  Methods must not be called concurrently.
+ */
+final class EmbeddedScanner {
+    private final TextureRegistry.SurfaceTextureEntry mTexture;
+    private final CameraSource mCameraSource;
+    private final FocusController mFocus = new FocusController();
+    private final AutoZoomController mAutoZoom;
+    private final ResultBatcher mResults;
+    private boolean mStarted;
+
+    EmbeddedScanner(Context context, TextureRegistry.SurfaceTextureEntry texture, int formats,
+                    int facing, boolean autoZoom, boolean autoTorch, ResultBatcher results) {
+        mTexture = texture;
+        mResults = results;
+        BarcodeDetector detector = ScannerPipeline.createDetector(context, formats);
+        MultiProcessor<Barcode> processor =
+                new MultiProcessor.Builder<Barcode>(barcode -> new ResultTracker(results)).build();
+        mCameraSource = ScannerPipeline.newCameraSourceBuilder(context, detector, formats,
+                processor, new PreviewBufferPool(0))
+                .setFacing(facing)
+                .setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                .build();
+        mCameraSource.addDetectionController(mFocus);
+        mCameraSource.getLightingController().setAutoTorch(autoTorch);
+        mAutoZoom = autoZoom ? new AutoZoomController() : null;
+        if (mAutoZoom != null) {
+            mCameraSource.addDetectionController(mAutoZoom);
+        }
+    }
+
+    long getTextureId() {
+        return mTexture.id();
+    }
+
+    /**
+     * Opens the camera and starts detection.  Returns the preview description for Dart.
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    Map<String, Object> start() throws IOException {
+        if (!mStarted) {
+            mResults.resumeBlocking();
+            mCameraSource.start(mTexture.surfaceTexture());
+            mStarted = true;
+            ScannerStats.getInstance().setCameraSource(mCameraSource);
+            ScannerStats.getInstance().setFocusController(mFocus);
+            ScannerStats.getInstance().setAutoZoomController(mAutoZoom);
+            ScannerStats.getInstance().setResultBatcher(mResults);
+        }
+        return describe();
+    }
+
+    void stop() {
+        // stopping waits for the detection threads, which must not wait for the main thread
+        mResults.cancelBlocked();
+        mCameraSource.stop();
+        mStarted = false;
+    }
+
+    void setPaused(boolean paused) {
+        mCameraSource.setDetectionPaused(paused);
+    }
+
+    /**
+     * Closes the camera, releases the detectors and unregisters the texture.
+     */
+    void dispose() {
+        mResults.cancelBlocked();
+        ScannerStats.getInstance().endSession(mCameraSource);
+        mCameraSource.release();
+        mTexture.release();
+        mStarted = false;
+    }
+
+    private Map<String, Object> describe() {
+        Map<String, Object> description = new HashMap<>();
+        description.put("textureId", mTexture.id());
+        Size size = mCameraSource.getPreviewSize();
+        if (size != null) {
+            description.put("previewWidth", size.getWidth());
+            description.put("previewHeight", size.getHeight());
+        }
+        description.put("facing", mCameraSource.getCameraFacing());
+        return description;
+    }
+
+    /**
+     * Reports a barcode once, on the first update after it has been detected, which carries the
+     * frame metadata.
+     */
+    private static class ResultTracker extends Tracker<Barcode> {
+        private final ResultBatcher mResults;
+        private boolean mIsNew;
+
+        ResultTracker(ResultBatcher results) {
+            mResults = results;
+        }
+
+        @Override
+        public void onNewItem(int id, Barcode item) {
+            mIsNew = true;
+        }
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            if (mIsNew) {
+                mIsNew = false;
+                FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(mResults, item,
+                        ScanResults.toMap(item, detections.getFrameMetadata()));
+            }
+        }
+    }
+}
@@ -1,20 +1,35 @@
 package com.amolg.flutterbarcodescanner;
 
+import android.Manifest;
 import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
+import androidx.core.app.ActivityCompat;
 import androidx.lifecycle.DefaultLifecycleObserver;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 
-import com.google.android.gms.common.api.CommonStatusCodes;
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
 import com.google.android.gms.vision.barcode.Barcode;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.flutter.embedding.android.FlutterFragmentActivity;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
@@ -24,6 +39,8 @@ import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.view.TextureRegistry;
 
 /**
  * FlutterBarcodeScannerPlugin - Embedding V2 only
@@ -34,7 +51,11 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
         ActivityAware {
 
     private static final String CHANNEL = "flutter_barcode_scanner";
+    private static final String IMAGE_CHANNEL = "flutter_barcode_scanner_images";
+    private static final String STATS_CHANNEL = "flutter_barcode_scanner_stats";
+    private static final int DEFAULT_STATS_INTERVAL_MILLIS = 1000;
     private static final int RC_BARCODE_CAPTURE = 9001;
+    private static final int RC_CAMERA_PERMISSION = 9002;
     private static final String TAG = FlutterBarcodeScannerPlugin.class.getSimpleName();
 
     private static FlutterFragmentActivity activity;
@@ -45,10 +66,70 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
     public static boolean isShowFlashIcon = false;
     public static boolean isContinuousScan = false;
 
+    // send structured result maps instead of raw value strings.
+    public static boolean isStructuredResult = false;
+
+    // zoom in on small barcodes automatically.
+    public static boolean isAutoZoom = false;
+
+    // let the scanner switch the torch in low light.
+    public static boolean isAutoTorch = false;
+
+    // detector format flags, from the format list or the scan mode sent from Dart.
+    public static int barcodeFormats = Barcode.ALL_FORMATS;
+
+    // scan window size and offset from the center, in dp; zero size picks the default window.
+    public static int scanWindowWidth = 0;
+    public static int scanWindowHeight = 0;
+    public static int scanWindowOffsetX = 0;
+    public static int scanWindowOffsetY = 0;
+
     private static EventChannel.EventSink barcodeStream;
+
+    // batches the continuous results of the scanner activity; embedded scanners have their own.
+    static ResultBatcher activityResults =
+            new ResultBatcher(FlutterBarcodeScannerPlugin::sendBarcodeBatch);
     private EventChannel eventChannel;
     private MethodChannel channel;
 
+    // per-image results of the batch decodes, and the running batches by id (main thread only)
+    private EventChannel.EventSink imageStream;
+    private EventChannel imageEventChannel;
+    private final Map<Integer, ImageBatchDecoder> imageBatches = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // periodic scanner statistics, while Dart listens on the stats channel
+    private EventChannel statsEventChannel;
+    private Runnable statsReporter;
+
+    // embedded scanners by texture id (main thread only); their camera commands run in order on
+    // one background thread, as opening the camera blocks
+    private final Map<Long, EmbeddedScanner> embeddedScanners = new HashMap<>();
+    private ExecutorService scannerExecutor;
+    private Runnable pendingCameraStart;
+    private Runnable pendingCameraDenied;
+    private PluginRegistry.RequestPermissionsResultListener permissionListener;
+
+    // drops the detectors kept between scan sessions when memory runs low
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                    && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                DetectorHolder.getInstance().releaseIdle();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            DetectorHolder.getInstance().releaseIdle();
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+    };
+
     private FlutterPlugin.FlutterPluginBinding pluginBinding;
     private ActivityPluginBinding activityBinding;
     private Application applicationContext;
@@ -63,6 +144,47 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
         try {
+            if (call.method.equals("scanImageFiles")) {
+                scanImageFiles(call, result);
+                return;
+            }
+            if (call.method.equals("getScannerStats")) {
+                result.success(ScannerStats.getInstance().toMap());
+                return;
+            }
+            if (handleEmbeddedScannerCall(call, result)) {
+                return;
+            }
+            if (call.method.equals("prepareScanner")) {
+                prepareScanner((Map<String, Object>) call.arguments, result);
+                return;
+            }
+            if (call.method.equals("releasePreparedScanner")) {
+                getScannerExecutor().execute(() -> {
+                    ScannerWarmUp.getInstance().release();
+                    mainHandler.post(() -> result.success(null));
+                });
+                return;
+            }
+            if (call.method.equals("setScanMode")) {
+                // switches the scanner on screen in place
+                barcodeFormats = BarcodeFormats.fromArguments(call.argument("formats"),
+                        call.argument("scanMode"));
+                BarcodeCaptureActivity.SCAN_MODE = getActivityScanMode(call.argument("scanMode"));
+                result.success(BarcodeCaptureActivity.applyScanMode(
+                        BarcodeCaptureActivity.SCAN_MODE, barcodeFormats));
+                return;
+            }
+            if (call.method.equals("cancelImageScan")) {
+                Integer batchId = call.argument("batchId");
+                ImageBatchDecoder batch = imageBatches.get(batchId);
+                if (batch != null) {
+                    batch.cancel();
+                }
+                result.success(batch != null);
+                return;
+            }
+
             pendingResult = result;
 
             if (call.method.equals("scanBarcode")) {
@@ -80,26 +202,300 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
                 cancelButtonIcon = (String) arguments.get("cancelButtonIcon");
                 cameraSwitchIcon = (String) arguments.get("cameraSwitchIcon");
 
-                if (arguments.get("scanMode") != null) {
-                    int mode = (int) arguments.get("scanMode");
-                    if (mode == BarcodeCaptureActivity.SCAN_MODE_ENUM.DEFAULT.ordinal()) {
-                        BarcodeCaptureActivity.SCAN_MODE = BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal();
-                    } else {
-                        BarcodeCaptureActivity.SCAN_MODE = mode;
-                    }
-                } else {
-                    BarcodeCaptureActivity.SCAN_MODE = BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal();
-                }
+                barcodeFormats = BarcodeFormats.fromArguments(arguments.get("formats"),
+                        arguments.get("scanMode"));
+
+                BarcodeCaptureActivity.SCAN_MODE = getActivityScanMode(arguments.get("scanMode"));
 
                 isContinuousScan = (boolean) arguments.get("isContinuousScan");
+                isAutoZoom = Boolean.TRUE.equals(arguments.get("autoZoom"));
+                isAutoTorch = Boolean.TRUE.equals(arguments.get("autoTorch"));
+                activityResults = configureResultDelivery(arguments);
+
+                scanWindowWidth = getIntArgument(arguments, "scanWindowWidth");
+                scanWindowHeight = getIntArgument(arguments, "scanWindowHeight");
+                scanWindowOffsetX = getIntArgument(arguments, "scanWindowOffsetX");
+                scanWindowOffsetY = getIntArgument(arguments, "scanWindowOffsetY");
 
                 startBarcodeScannerActivity((String) arguments.get("cancelButtonText"), isContinuousScan);
             }
         } catch (Exception e) {
+            // e.g. an argument of the wrong type; the call fails rather than never completing
             Log.e(TAG, "onMethodCall: " + e.getLocalizedMessage());
+            if (pendingResult == result) {
+                pendingResult = null;
+            }
+            result.error("INVALID_ARGUMENTS", call.method + ": " + e.getMessage(), null);
         }
     }
 
+    /**
+     * Decodes the images at the given paths or content URIs in the background.  The result of each
+     * image is sent on the image event channel, tagged with the batch id chosen by Dart; the method
+     * call completes with the number of images decoded once the whole batch has been handled.
+     */
+    private void scanImageFiles(MethodCall call, final MethodChannel.Result result) {
+        final Integer batchId = call.argument("batchId");
+        List<String> paths = call.argument("paths");
+        if (batchId == null || paths == null) {
+            result.error("INVALID_ARGUMENTS", "batchId and paths are required", null);
+            return;
+        }
+        if (paths.isEmpty()) {
+            result.success(0);
+            return;
+        }
+
+        int formats = BarcodeFormats.fromArguments(call.argument("formats"), call.argument("scanMode"));
+        ImageBatchDecoder batch = new ImageBatchDecoder(pluginBinding.getApplicationContext(),
+                new ArrayList<>(paths), formats, new ImageBatchDecoder.Listener() {
+            @Override
+            public void onImageDecoded(int index, String source, SparseArray<Barcode> barcodes,
+                                       String error) {
+                final Map<String, Object> event = new HashMap<>();
+                event.put("batchId", batchId);
+                event.put("index", index);
+                event.put("path", source);
+                List<String> values = new ArrayList<>();
+                List<String> formatNames = new ArrayList<>();
+                if (barcodes != null) {
+                    for (int i = 0; i < barcodes.size(); ++i) {
+                        values.add(barcodes.valueAt(i).rawValue);
+                        formatNames.add(BarcodeFormats.name(barcodes.valueAt(i).format));
+                    }
+                }
+                event.put("values", values);
+                event.put("formats", formatNames);
+                event.put("error", error);
+                mainHandler.post(() -> {
+                    if (imageStream != null) {
+                        imageStream.success(event);
+                    }
+                });
+            }
+
+            @Override
+            public void onBatchFinished(final int decodedCount, boolean cancelled) {
+                mainHandler.post(() -> {
+                    imageBatches.remove(batchId);
+                    result.success(decodedCount);
+                });
+            }
+        });
+        imageBatches.put(batchId, batch);
+        batch.start();
+    }
+
+    /**
+     * Handles the method calls controlling embedded scanners, which show the camera preview in a
+     * Flutter texture.  Returns false for any other method.
+     */
+    private boolean handleEmbeddedScannerCall(MethodCall call, final MethodChannel.Result result) {
+        switch (call.method) {
+            case "createScanner":
+                createEmbeddedScanner((Map<String, Object>) call.arguments, result);
+                return true;
+            case "startScanner":
+            case "stopScanner":
+            case "pauseScanner":
+            case "disposeScanner":
+                break;
+            default:
+                return false;
+        }
+
+        Number textureId = call.argument("textureId");
+        final EmbeddedScanner scanner = textureId == null ? null
+                : embeddedScanners.get(textureId.longValue());
+        if (scanner == null) {
+            result.error("INVALID_ARGUMENTS", "Unknown scanner: " + textureId, null);
+            return true;
+        }
+        switch (call.method) {
+            case "startScanner":
+                startEmbeddedScanner(scanner, result);
+                break;
+            case "stopScanner":
+                runScannerCommand(scanner::stop, result);
+                break;
+            case "pauseScanner":
+                final boolean paused = Boolean.TRUE.equals(call.argument("paused"));
+                runScannerCommand(() -> scanner.setPaused(paused), result);
+                break;
+            default:
+                embeddedScanners.remove(scanner.getTextureId());
+                runScannerCommand(scanner::dispose, result);
+                break;
+        }
+        return true;
+    }
+
+    private void createEmbeddedScanner(final Map<String, Object> arguments,
+                                       final MethodChannel.Result result) {
+        if (arguments == null) {
+            result.error("INVALID_ARGUMENTS", "Plugin expects a map parameter", null);
+            return;
+        }
+        final ResultBatcher results = configureResultDelivery(arguments);
+        final int formats = BarcodeFormats.fromArguments(arguments.get("formats"),
+                arguments.get("scanMode"));
+        final int facing = getIntArgument(arguments, "facing");
+        final boolean autoZoom = Boolean.TRUE.equals(arguments.get("autoZoom"));
+        final boolean autoTorch = Boolean.TRUE.equals(arguments.get("autoTorch"));
+        final TextureRegistry.SurfaceTextureEntry texture =
+                pluginBinding.getTextureRegistry().createSurfaceTexture();
+        final Context context = pluginBinding.getApplicationContext();
+        // building the detectors may load the native library, so it is kept off the main thread
+        getScannerExecutor().execute(() -> {
+            final EmbeddedScanner scanner = new EmbeddedScanner(context, texture, formats, facing,
+                    autoZoom, autoTorch, results);
+            mainHandler.post(() -> {
+                embeddedScanners.put(scanner.getTextureId(), scanner);
+                result.success(scanner.getTextureId());
+            });
+        });
+    }
+
+    /**
+     * Prepares the scanner activity in the background, see {@link ScannerWarmUp}.  Completes with
+     * the preparation time and preview size, or with null if the camera permission has not been
+     * granted yet, in which case the scan asks for it as usual.
+     */
+    private void prepareScanner(final Map<String, Object> arguments,
+                                final MethodChannel.Result result) {
+        if (arguments == null) {
+            result.error("INVALID_ARGUMENTS", "Plugin expects a map parameter", null);
+            return;
+        }
+        final Context context = pluginBinding.getApplicationContext();
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            result.success(null);
+            return;
+        }
+        final int formats = BarcodeFormats.fromArguments(arguments.get("formats"),
+                arguments.get("scanMode"));
+        final long idleTimeoutMillis = getIntArgument(arguments, "idleTimeoutMillis");
+        getScannerExecutor().execute(() -> {
+            try {
+                final Map<String, Object> description = ScannerWarmUp.getInstance().prepare(
+                        context, formats, CameraSource.CAMERA_FACING_BACK, idleTimeoutMillis);
+                mainHandler.post(() -> result.success(description));
+            } catch (IOException | RuntimeException e) {
+                mainHandler.post(() -> result.error("CAMERA_ERROR", e.getMessage(), null));
+            }
+        });
+    }
+
+    /**
+     * Starts an embedded scanner, asking for the camera permission first if needed.  Completes
+     * with the preview size once the camera runs.
+     */
+    private void startEmbeddedScanner(final EmbeddedScanner scanner,
+                                      final MethodChannel.Result result) {
+        Runnable start = () -> getScannerExecutor().execute(() -> {
+            try {
+                final Map<String, Object> description = scanner.start();
+                mainHandler.post(() -> result.success(description));
+            } catch (IOException | RuntimeException e) {
+                mainHandler.post(() -> result.error("CAMERA_ERROR", e.getMessage(), null));
+            }
+        });
+
+        if (ActivityCompat.checkSelfPermission(pluginBinding.getApplicationContext(),
+                Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
+            start.run();
+            return;
+        }
+        if (activity == null || pendingCameraStart != null) {
+            result.error("PERMISSION_DENIED", "Camera permission not granted", null);
+            return;
+        }
+        pendingCameraStart = start;
+        pendingCameraDenied = () -> result.error("PERMISSION_DENIED",
+                "Camera permission not granted", null);
+        ActivityCompat.requestPermissions(activity, new String[]{Manifest.permission.CAMERA},
+                RC_CAMERA_PERMISSION);
+    }
+
+    private boolean onCameraPermissionResult(int requestCode, int[] grantResults) {
+        if (requestCode != RC_CAMERA_PERMISSION || pendingCameraStart == null) {
+            return false;
+        }
+        boolean granted = grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+        (granted ? pendingCameraStart : pendingCameraDenied).run();
+        pendingCameraStart = null;
+        pendingCameraDenied = null;
+        return true;
+    }
+
+    private void runScannerCommand(final Runnable command, final MethodChannel.Result result) {
+        getScannerExecutor().execute(() -> {
+            command.run();
+            mainHandler.post(() -> result.success(null));
+        });
+    }
+
+    private ExecutorService getScannerExecutor() {
+        if (scannerExecutor == null) {
+            scannerExecutor = Executors.newSingleThreadExecutor();
+        }
+        return scannerExecutor;
+    }
+
+    private void stopStatsReporter() {
+        if (statsReporter != null) {
+            mainHandler.removeCallbacks(statsReporter);
+            statsReporter = null;
+        }
+    }
+
+    /**
+     * Returns the scan mode the scanner activity uses for the given Dart scan mode index; the
+     * default mode shows the QR code window.
+     */
+    private static int getActivityScanMode(Object scanMode) {
+        if (scanMode == null
+                || (int) scanMode == BarcodeCaptureActivity.SCAN_MODE_ENUM.DEFAULT.ordinal()) {
+            return BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal();
+        }
+        return (int) scanMode;
+    }
+
+    /**
+     * Applies the result format and duplicate suppression settings of a scan, and returns a new
+     * batcher for its continuous results with the batching settings.
+     */
+    private static ResultBatcher configureResultDelivery(Map<String, Object> arguments) {
+        isStructuredResult = Boolean.TRUE.equals(arguments.get("structuredResults"));
+        DuplicateFilter.getInstance().configure(getIntArgument(arguments, "duplicateCooldownMillis"),
+                getIntArgument(arguments, "duplicateCacheSize"));
+        ResultBatcher results = new ResultBatcher(FlutterBarcodeScannerPlugin::sendBarcodeBatch);
+        results.configure(getIntArgument(arguments, "batchSize"),
+                getIntArgument(arguments, "batchWindowMillis"),
+                getIntArgument(arguments, "queueCapacity"), getOverflowPolicy(arguments));
+        return results;
+    }
+
+    private static ResultBatcher.OverflowPolicy getOverflowPolicy(Map<String, Object> arguments) {
+        Object value = arguments.get("overflowPolicy");
+        for (ResultBatcher.OverflowPolicy policy : ResultBatcher.OverflowPolicy.values()) {
+            if (policy.name().equals(value)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads an optional numeric argument, which Dart may send as either an int or a double.
+     */
+    private static int getIntArgument(Map<String, Object> arguments, String key) {
+        Object value = arguments.get(key);
+        return value instanceof Number ? Math.round(((Number) value).floatValue()) : 0;
+    }
+
     private void startBarcodeScannerActivity(String buttonText, boolean isContinuousScan) {
         try {
             Intent intent = new Intent(activity, BarcodeCaptureActivity.class)
@@ -125,22 +521,60 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
     }
 
     public static void onBarcodeScanReceiver(final Barcode barcode) {
+        onBarcodeScanReceiver(activityResults, barcode, null);
+    }
+
+    /**
+     * Queues a continuous scan result for delivery by the batcher of its scanner: the structured
+     * result if Dart asked for structured results, otherwise the raw value.  Without a structured
+     * result, e.g. for the cancel marker, nothing is sent to a structured stream.
+     */
+    static void onBarcodeScanReceiver(ResultBatcher results, final Barcode barcode,
+                                      Map<String, Object> result) {
         try {
-            if (barcode != null && barcode.displayValue != null && !barcode.displayValue.isEmpty()) {
-                activity.runOnUiThread(() -> barcodeStream.success(barcode.rawValue));
+            if (barcode != null && barcode.displayValue != null && !barcode.displayValue.isEmpty()
+                    && (!isStructuredResult || result != null)
+                    && DuplicateFilter.getInstance().accept(barcode.rawValue)) {
+                results.offer(isStructuredResult ? result : barcode.rawValue);
             }
         } catch (Exception e) {
             Log.e(TAG, "onBarcodeScanReceiver: " + e.getLocalizedMessage());
         }
     }
 
+    /**
+     * Completes a single scan with the given result.  Must be called on the main thread before
+     * the scanner activity finishes.
+     */
+    public static void onScanResult(Map<String, Object> result) {
+        if (pendingResult != null) {
+            pendingResult.success(isStructuredResult ? result : result.get("rawValue"));
+            pendingResult = null;
+        }
+    }
+
+    /**
+     * Sends a batch of continuous scan results as one list message.  Runs on the main thread.
+     */
+    private static void sendBarcodeBatch(List<Object> batch) {
+        if (barcodeStream != null) {
+            barcodeStream.success(batch);
+        }
+    }
+
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
         this.pluginBinding = binding;
+        binding.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
+        binding.getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        // after the camera commands still queued, which may hand detectors back
+        getScannerExecutor().execute(DetectorHolder.getInstance()::releaseIdle);
+        scannerExecutor.shutdown();
+        scannerExecutor = null;
         this.pluginBinding = null;
     }
 
@@ -183,6 +617,43 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
         eventChannel = new EventChannel(messenger, "flutter_barcode_scanner_receiver");
         eventChannel.setStreamHandler(this);
 
+        imageEventChannel = new EventChannel(messenger, IMAGE_CHANNEL);
+        imageEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink events) {
+                imageStream = events;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                imageStream = null;
+            }
+        });
+
+        statsEventChannel = new EventChannel(messenger, STATS_CHANNEL);
+        statsEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, final EventChannel.EventSink events) {
+                final long interval = arguments instanceof Number
+                        ? Math.max(100, ((Number) arguments).longValue())
+                        : DEFAULT_STATS_INTERVAL_MILLIS;
+                stopStatsReporter();
+                statsReporter = new Runnable() {
+                    @Override
+                    public void run() {
+                        events.success(ScannerStats.getInstance().toMap());
+                        mainHandler.postDelayed(this, interval);
+                    }
+                };
+                mainHandler.post(statsReporter);
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                stopStatsReporter();
+            }
+        });
+
         // Setup MethodChannel
         channel = new MethodChannel(messenger, CHANNEL);
         channel.setMethodCallHandler(this);
@@ -191,17 +662,15 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
         observer = new LifeCycleObserver(activity);
         lifecycle = io.flutter.embedding.engine.plugins.lifecycle.FlutterLifecycleAdapter.getActivityLifecycle(activityBinding);
         lifecycle.addObserver(observer);
+        permissionListener = (requestCode, permissions, grantResults) ->
+                onCameraPermissionResult(requestCode, grantResults);
+        activityBinding.addRequestPermissionsResultListener(permissionListener);
         activityBinding.addActivityResultListener((requestCode, resultCode, data) -> {
             if (requestCode == RC_BARCODE_CAPTURE) {
-                if (resultCode == CommonStatusCodes.SUCCESS && data != null) {
-                    Barcode barcode = data.getParcelableExtra(BarcodeCaptureActivity.BarcodeObject);
-                    if (barcode != null) {
-                        pendingResult.success(barcode.rawValue);
-                    } else {
-                        pendingResult.success("-1");
-                    }
-                } else {
-                    pendingResult.success("-1");
+                // A scanned result has already been delivered by onScanResult, so the scan is
+                // only still pending if it was cancelled.
+                if (pendingResult != null) {
+                    pendingResult.success(isStructuredResult ? null : "-1");
                 }
                 pendingResult = null;
                 arguments = null;
@@ -215,6 +684,9 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
         try {
             if (activityBinding != null) {
                 activityBinding.removeActivityResultListener(null);
+                if (permissionListener != null) {
+                    activityBinding.removeRequestPermissionsResultListener(permissionListener);
+                }
             }
             if (lifecycle != null && observer != null) {
                 lifecycle.removeObserver(observer);
@@ -227,6 +699,30 @@ public class FlutterBarcodeScannerPlugin implements MethodChannel.MethodCallHand
                 eventChannel.setStreamHandler(null);
                 eventChannel = null;
             }
+            if (imageEventChannel != null) {
+                imageEventChannel.setStreamHandler(null);
+                imageEventChannel = null;
+            }
+            if (statsEventChannel != null) {
+                statsEventChannel.setStreamHandler(null);
+                statsEventChannel = null;
+            }
+            stopStatsReporter();
+            for (ImageBatchDecoder batch : imageBatches.values()) {
+                batch.cancel();
+            }
+            // the camera must not stay open without the activity
+            for (final EmbeddedScanner scanner : embeddedScanners.values()) {
+                getScannerExecutor().execute(scanner::dispose);
+            }
+            getScannerExecutor().execute(ScannerWarmUp.getInstance()::release);
+            embeddedScanners.clear();
+            if (pendingCameraDenied != null) {
+                pendingCameraDenied.run();
+            }
+            pendingCameraStart = null;
+            pendingCameraDenied = null;
+            permissionListener = null;
         } catch (Exception ignored) {}
 
         activity = null;
@@ -0,0 +1,243 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Steers the camera focus by what the detector finds, so that labels close to the camera do not
+ * sit in a blurred focus hunt.
+ * <p/>
+ * Focus and metering follow the barcode closest to the center of the frame, and fall back to the
+ * scan window once no barcode has been decoded for a while.  Continuous focus is kept by default.
+ * When a run of frames passes without a result, a focus sweep is forced by switching to auto
+ * focus and triggering it; the lens then holds the distance it locked on until the next run of
+ * frames without a result, which returns to continuous focus.  A barcode which fills most of the
+ * frame is close to the lens, so macro focus is used until it gets smaller again.
+ * <p/>
+ * The time from triggering a focus sweep to the focus locking is recorded for the statistics.
+ */
+final class FocusController implements CameraSource.DetectionController {
+    private static final int DEFAULT_SWEEP_AFTER_FRAMES = 45;
+
+    // macro focus is used above the first fraction of the frame, continuous again below the other
+    private static final float MACRO_FRACTION = 0.6f;
+    private static final float CONTINUOUS_FRACTION = 0.35f;
+    // the focus region spans the target grown by this factor, and at least this fraction of the
+    // frame; it follows the target once the center moved by the given fraction of the frame
+    private static final float REGION_GROWTH = 1.5f;
+    private static final float MIN_REGION_FRACTION = 0.2f;
+    private static final float REGION_MOVE_FRACTION = 0.1f;
+    private static final long REGION_INTERVAL_MILLIS = 300;
+    // a sweep which has not completed after this long is counted as failed
+    private static final long SWEEP_TIMEOUT_MILLIS = 3000;
+
+    private enum State {
+        // the focus mode the camera was started with
+        CONTINUOUS,
+        // auto focus was triggered, waiting for the lens to lock
+        SWEEPING,
+        // auto focus locked, holding the lens position
+        LOCKED,
+        MACRO
+    }
+
+    private final int mSweepAfterFrames;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final Rect mTarget = new Rect();
+    private State mState = State.CONTINUOUS;
+    // the focus mode to return to, read when the first frame of a camera arrives
+    private String mBaseMode;
+    private int mFacing = -1;
+    private int mFramesWithoutResult;
+    // the focus region, in fractions of the upright frame, or null for the scan window
+    private RectF mRegion;
+    private long mRegionMillis;
+    private long mSweepStartMillis;
+    private long mSweeps;
+    private long mLocks;
+    private long mFailures;
+    private long mLastLockMillis;
+    private long mMaxLockMillis;
+    private long mTotalLockMillis;
+    private long mMacroSwitches;
+    private long mRegionUpdates;
+
+    FocusController() {
+        this(DEFAULT_SWEEP_AFTER_FRAMES);
+    }
+
+    /**
+     * @param sweepAfterFrames the number of frames without a result before the focus is swept
+     */
+    FocusController(int sweepAfterFrames) {
+        if (sweepAfterFrames <= 0) {
+            throw new IllegalArgumentException("Invalid frame count: " + sweepAfterFrames);
+        }
+        mSweepAfterFrames = sweepAfterFrames;
+    }
+
+    @Override
+    public void onFrameDetected(CameraSource source, SparseArray<?> detections, int frameWidth,
+                                int frameHeight) {
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            int facing = source.getCameraFacing();
+            if (facing != mFacing) {
+                startCamera(source, facing);
+            }
+            if (mState == State.SWEEPING && now - mSweepStartMillis > SWEEP_TIMEOUT_MILLIS) {
+                ++mFailures;
+                mState = State.LOCKED;
+            }
+
+            if (!AutoZoomController.findTarget(detections, frameWidth, frameHeight, mTarget)) {
+                if (++mFramesWithoutResult >= mSweepAfterFrames && mState != State.SWEEPING) {
+                    mFramesWithoutResult = 0;
+                    onStalled(source, now);
+                }
+                return;
+            }
+            mFramesWithoutResult = 0;
+
+            float size = Math.max((float) mTarget.width() / frameWidth,
+                    (float) mTarget.height() / frameHeight);
+            if (mState != State.MACRO && mState != State.SWEEPING && size >= MACRO_FRACTION
+                    && source.setFocusMode(Camera.Parameters.FOCUS_MODE_MACRO)) {
+                ++mMacroSwitches;
+                // macro focus only moves the lens when triggered
+                sweep(source, now, State.MACRO);
+            } else if (mState == State.MACRO && size <= CONTINUOUS_FRACTION) {
+                resumeBaseMode(source);
+            }
+            followTarget(source, frameWidth, frameHeight, now);
+        }
+    }
+
+    /**
+     * Starts over with the base focus mode and the scan window on a newly started camera.
+     */
+    private void startCamera(CameraSource source, int facing) {
+        if (mBaseMode == null) {
+            mBaseMode = source.getFocusMode();
+        } else {
+            source.setFocusMode(mBaseMode);
+        }
+        mFacing = facing;
+        mState = State.CONTINUOUS;
+        mFramesWithoutResult = 0;
+        mRegion = null;
+        source.setFocusRegion(null, null);
+        ++mRegionUpdates;
+    }
+
+    /**
+     * Reacts to a run of frames without a result: a lens held at one distance, or macro focus,
+     * returns to the base mode first, while continuous focus gets a sweep.
+     */
+    private void onStalled(CameraSource source, long now) {
+        if (mRegion != null) {
+            mRegion = null;
+            source.setFocusRegion(null, null);
+            ++mRegionUpdates;
+        }
+        if (mState == State.CONTINUOUS) {
+            if (source.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO)) {
+                sweep(source, now, State.LOCKED);
+            }
+        } else {
+            resumeBaseMode(source);
+        }
+    }
+
+    /**
+     * Triggers auto focus, entering the given state once the focus locked.
+     */
+    private void sweep(CameraSource source, long now, State lockedState) {
+        mState = State.SWEEPING;
+        mSweepStartMillis = now;
+        ++mSweeps;
+        source.autoFocus(success -> onFocusComplete(success, now, lockedState));
+    }
+
+    private void onFocusComplete(boolean success, long startMillis, State lockedState) {
+        long lockMillis = SystemClock.elapsedRealtime() - startMillis;
+        synchronized (mLock) {
+            if (mState != State.SWEEPING || mSweepStartMillis != startMillis) {
+                // timed out, or the camera changed meanwhile
+                return;
+            }
+            mState = lockedState;
+            if (!success) {
+                ++mFailures;
+                return;
+            }
+            ++mLocks;
+            mLastLockMillis = lockMillis;
+            mMaxLockMillis = Math.max(mMaxLockMillis, lockMillis);
+            mTotalLockMillis += lockMillis;
+        }
+    }
+
+    private void resumeBaseMode(CameraSource source) {
+        source.cancelAutoFocus();
+        source.setFocusMode(mBaseMode);
+        mState = State.CONTINUOUS;
+    }
+
+    /**
+     * Moves the focus region onto the target, unless it already covers about the same area or
+     * was moved just before.
+     */
+    private void followTarget(CameraSource source, int frameWidth, int frameHeight, long now) {
+        if (now - mRegionMillis < REGION_INTERVAL_MILLIS) {
+            return;
+        }
+        float centerX = mTarget.exactCenterX() / frameWidth;
+        float centerY = mTarget.exactCenterY() / frameHeight;
+        float halfWidth = Math.max(MIN_REGION_FRACTION,
+                REGION_GROWTH * mTarget.width() / frameWidth) / 2;
+        float halfHeight = Math.max(MIN_REGION_FRACTION,
+                REGION_GROWTH * mTarget.height() / frameHeight) / 2;
+        if (mRegion != null
+                && Math.abs(mRegion.centerX() - centerX) < REGION_MOVE_FRACTION
+                && Math.abs(mRegion.centerY() - centerY) < REGION_MOVE_FRACTION) {
+            return;
+        }
+
+        mRegion = new RectF(Math.max(0.0f, centerX - halfWidth),
+                Math.max(0.0f, centerY - halfHeight), Math.min(1.0f, centerX + halfWidth),
+                Math.min(1.0f, centerY + halfHeight));
+        mRegionMillis = now;
+        source.setFocusRegion(mRegion, null);
+        ++mRegionUpdates;
+    }
+
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("state", mState.name());
+            map.put("sweeps", mSweeps);
+            map.put("locks", mLocks);
+            map.put("failures", mFailures);
+            map.put("lastLockMillis", mLastLockMillis);
+            map.put("maxLockMillis", mMaxLockMillis);
+            map.put("meanLockMillis", mLocks == 0 ? 0 : mTotalLockMillis / mLocks);
+            map.put("macroSwitches", mMacroSwitches);
+            map.put("regionUpdates", mRegionUpdates);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Breaks the time spent in the detector down by detector configuration and by the format of the
+ * barcodes found.  The average per configuration shows how much narrowing the searched formats
+ * speeds up every frame; the averages per format show what frames yielding a given symbology
+ * cost.  Each camera source observes its own instance, so that scanners decoding different
+ * formats at the same time do not mix their timings up; the configurations a camera source is
+ * switched through are kept for its lifetime, so they can be compared.
+ */
+final class FormatDecodeTimings implements CameraSource.DetectionObserver {
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+
+    // frame count and total detection time, keyed by the configured detector formats
+    private final Map<Integer, long[]> mByConfiguration = new HashMap<>();
+    private long[] mActiveConfiguration;
+
+    // frame count and total detection time of frames which yielded each format
+    private final long[] mFormatFrames = new long[BarcodeFormats.count()];
+    private final long[] mFormatNanos = new long[BarcodeFormats.count()];
+    private long mEmptyFrames;
+    private long mEmptyNanos;
+
+    FormatDecodeTimings(int formats) {
+        setActiveFormats(formats);
+    }
+
+    /**
+     * Returns the timings observed by the given camera source, or null if it has none.
+     */
+    @Nullable
+    static FormatDecodeTimings of(CameraSource cameraSource) {
+        CameraSource.DetectionObserver observer = cameraSource.getDetectionObserver();
+        return observer instanceof FormatDecodeTimings ? (FormatDecodeTimings) observer : null;
+    }
+
+    /**
+     * Sets the detector formats the following frames are decoded with.
+     */
+    void setActiveFormats(int formats) {
+        synchronized (mLock) {
+            long[] totals = mByConfiguration.get(formats);
+            if (totals == null) {
+                totals = new long[2];
+                mByConfiguration.put(formats, totals);
+            }
+            mActiveConfiguration = totals;
+        }
+    }
+
+    @Override
+    public void onFrameDetected(SparseArray<?> detections, long detectNanos) {
+        synchronized (mLock) {
+            mActiveConfiguration[0]++;
+            mActiveConfiguration[1] += detectNanos;
+
+            if (detections == null || detections.size() == 0) {
+                mEmptyFrames++;
+                mEmptyNanos += detectNanos;
+                return;
+            }
+
+            // count every format once per frame, even if several barcodes share it
+            int seen = 0;
+            for (int i = 0; i < detections.size(); ++i) {
+                Object item = detections.valueAt(i);
+                if (!(item instanceof Barcode)) {
+                    continue;
+                }
+                int index = BarcodeFormats.indexOf(((Barcode) item).format);
+                if (index >= 0 && (seen & (1 << index)) == 0) {
+                    seen |= 1 << index;
+                    mFormatFrames[index]++;
+                    mFormatNanos[index] += detectNanos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the breakdown as a map, with average times in microseconds.
+     */
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> configurations = new HashMap<>();
+            for (Map.Entry<Integer, long[]> entry : mByConfiguration.entrySet()) {
+                long[] totals = entry.getValue();
+                if (totals[0] > 0) {
+                    configurations.put(BarcodeFormats.describe(entry.getKey()),
+                            timing(totals[0], totals[1]));
+                }
+            }
+
+            Map<String, Object> formats = new HashMap<>();
+            for (int i = 0; i < mFormatFrames.length; ++i) {
+                if (mFormatFrames[i] > 0) {
+                    formats.put(BarcodeFormats.nameAt(i), timing(mFormatFrames[i], mFormatNanos[i]));
+                }
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("byConfiguration", configurations);
+            result.put("byFormat", formats);
+            result.put("noResult", timing(mEmptyFrames, mEmptyNanos));
+            return result;
+        }
+    }
+
+    private static Map<String, Object> timing(long frames, long nanos) {
+        Map<String, Object> timing = new HashMap<>();
+        timing.put("frames", frames);
+        timing.put("averageMicros", frames == 0 ? 0 : nanos / frames / 1000);
+        return timing;
+    }
+}
@@ -0,0 +1,253 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.amolg.flutterbarcodescanner.constants.AppConstants;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes barcodes from a batch of image files or content URIs on a bounded number of worker
+ * threads, each with its own detector.
+ * <p/>
+ * Memory stays bounded whatever the image size: each image is first decoded subsampled to at
+ * most {@link AppConstants#IMAGE_DECODE_MAX_DIMENSION} pixels.  Only if that finds nothing, the
+ * image is decoded again at full resolution, one overlapping tile at a time, so that small
+ * barcodes on large photos are not lost to the subsampling.
+ */
+final class ImageBatchDecoder {
+    private static final String CONTENT_SCHEME = "content://";
+    private static final String FILE_SCHEME = "file://";
+
+    /**
+     * Receives the results of a batch.  Called on the worker threads.
+     */
+    interface Listener {
+        /**
+         * Called once for every image, in completion order.  Either the barcodes (possibly none)
+         * or an error message is given.  Barcode coordinates are in full image pixels.
+         */
+        void onImageDecoded(int index, String source, @Nullable SparseArray<Barcode> barcodes,
+                            @Nullable String error);
+
+        /**
+         * Called once after the last image has been handled, or the batch has been cancelled.
+         */
+        void onBatchFinished(int decodedCount, boolean cancelled);
+    }
+
+    private final Context mContext;
+    private final List<String> mSources;
+    private final int mFormats;
+    private final Listener mListener;
+    private final BarcodeDetectionMapper mMapper = new BarcodeDetectionMapper();
+
+    private final Thread[] mThreads;
+    private final AtomicInteger mNextIndex = new AtomicInteger();
+    private final AtomicInteger mDecodedCount = new AtomicInteger();
+    private final AtomicInteger mRunningWorkers;
+    private volatile boolean mCancelled;
+
+    ImageBatchDecoder(Context context, List<String> sources, int formats, Listener listener) {
+        mContext = context.getApplicationContext();
+        mSources = sources;
+        mFormats = formats;
+        mListener = listener;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workerCount = Math.max(1, Math.min(Math.min(cores - 1,
+                AppConstants.IMAGE_DECODE_WORKERS_MAX), sources.size()));
+        mThreads = new Thread[workerCount];
+        mRunningWorkers = new AtomicInteger(workerCount);
+        for (int i = 0; i < workerCount; ++i) {
+            mThreads[i] = new Thread(new Worker(), "ImageBatchDecoder-" + i);
+        }
+    }
+
+    void start() {
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the batch after the images currently being decoded.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private class Worker implements Runnable {
+        private BarcodeDetector mDetector;
+
+        // Reused for every tile of the same size.
+        private Bitmap mTile;
+
+        @Override
+        public void run() {
+            mDetector = new BarcodeDetector.Builder(mContext).setBarcodeFormats(mFormats).build();
+            try {
+                int index;
+                while (!mCancelled && (index = mNextIndex.getAndIncrement()) < mSources.size()) {
+                    String source = mSources.get(index);
+                    SparseArray<Barcode> barcodes = null;
+                    String error = null;
+                    try {
+                        barcodes = decode(source);
+                        mDecodedCount.incrementAndGet();
+                    } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                        error = e.toString();
+                    }
+                    mListener.onImageDecoded(index, source, barcodes, error);
+                }
+            } finally {
+                mDetector.release();
+                if (mTile != null) {
+                    mTile.recycle();
+                }
+                if (mRunningWorkers.decrementAndGet() == 0) {
+                    mListener.onBatchFinished(mDecodedCount.get(), mCancelled);
+                }
+            }
+        }
+
+        private SparseArray<Barcode> decode(String source) throws IOException {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream in = open(source)) {
+                BitmapFactory.decodeStream(in, null, bounds);
+            }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                throw new IOException("Unsupported image: " + source);
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = getSampleSize(bounds.outWidth, bounds.outHeight);
+            Bitmap bitmap;
+            try (InputStream in = open(source)) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            if (bitmap == null) {
+                throw new IOException("Could not decode image: " + source);
+            }
+
+            SparseArray<Barcode> barcodes;
+            try {
+                barcodes = mDetector.detect(new Frame.Builder().setBitmap(bitmap).build());
+            } finally {
+                bitmap.recycle();
+            }
+            if (barcodes.size() > 0 || options.inSampleSize == 1) {
+                mMapper.map(barcodes, options.inSampleSize, 0, 0);
+                return barcodes;
+            }
+            return decodeTiles(source, bounds.outWidth, bounds.outHeight);
+        }
+
+        /**
+         * Decodes the image at full resolution in tiles overlapping by a quarter, so that a
+         * barcode cut by one tile border lies whole within a neighbouring tile.  Tiles at the
+         * right and bottom edges are moved inwards, so that all tiles have the same size and share
+         * one bitmap.
+         */
+        private SparseArray<Barcode> decodeTiles(String source, int width, int height)
+                throws IOException {
+            BitmapRegionDecoder decoder;
+            try (InputStream in = open(source)) {
+                decoder = BitmapRegionDecoder.newInstance(in, false);
+            }
+
+            int tileWidth = Math.min(AppConstants.IMAGE_DECODE_TILE_SIZE, width);
+            int tileHeight = Math.min(AppConstants.IMAGE_DECODE_TILE_SIZE, height);
+            int stepX = Math.max(1, tileWidth - tileWidth / 4);
+            int stepY = Math.max(1, tileHeight - tileHeight / 4);
+            if (mTile != null && (mTile.getWidth() != tileWidth || mTile.getHeight() != tileHeight)) {
+                mTile.recycle();
+                mTile = null;
+            }
+
+            SparseArray<Barcode> results = new SparseArray<>();
+            Set<String> seen = new HashSet<>();
+            Rect region = new Rect();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            try {
+                for (int y = 0; y < height && !mCancelled; y += stepY) {
+                    int top = Math.min(y, height - tileHeight);
+                    for (int x = 0; x < width && !mCancelled; x += stepX) {
+                        int left = Math.min(x, width - tileWidth);
+                        region.set(left, top, left + tileWidth, top + tileHeight);
+                        options.inBitmap = mTile;
+                        mTile = decoder.decodeRegion(region, options);
+                        if (mTile == null) {
+                            throw new IOException("Could not decode image: " + source);
+                        }
+
+                        SparseArray<Barcode> barcodes =
+                                mDetector.detect(new Frame.Builder().setBitmap(mTile).build());
+                        mMapper.map(barcodes, 1.0f, left, top);
+                        for (int i = 0; i < barcodes.size(); ++i) {
+                            Barcode barcode = barcodes.valueAt(i);
+                            if (seen.add(barcode.format + ":" + barcode.rawValue)) {
+                                results.append(results.size(), barcode);
+                            }
+                        }
+
+                        if (left + tileWidth >= width) {
+                            break;
+                        }
+                    }
+                    if (top + tileHeight >= height) {
+                        break;
+                    }
+                }
+            } finally {
+                decoder.recycle();
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Returns the power of two subsampling which brings the larger side of the image down to at
+     * most the maximum dimension.
+     */
+    private static int getSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / sampleSize > AppConstants.IMAGE_DECODE_MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private InputStream open(String source) throws IOException {
+        if (source.startsWith(CONTENT_SCHEME)) {
+            InputStream in = mContext.getContentResolver().openInputStream(Uri.parse(source));
+            if (in == null) {
+                throw new IOException("Could not open " + source);
+            }
+            return in;
+        }
+        if (source.startsWith(FILE_SCHEME)) {
+            source = source.substring(FILE_SCHEME.length());
+        }
+        return new FileInputStream(source);
+    }
+}
@@ -0,0 +1,219 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces continuous scan results into list messages for the event channel.  Results are
+ * queued from the detection threads and sent from the main thread in batches of at most
+ * {@code batchSize} items, once the batch is full or {@code windowMillis} after its first item,
+ * whichever comes first.  At most one main thread message is pending at any time.
+ * <p/>
+ * The queue is bounded; when it is full, the overflow policy either drops the oldest queued
+ * result, drops the new one, or blocks the detection thread until the main thread has drained
+ * the queue.  A blocked detection thread drops its result after a while, and whenever the
+ * scanner stops, since the main thread stopping the camera waits for the detection threads and
+ * cannot drain the queue meanwhile.
+ * <p/>
+ * Every scanner session has its own batcher, so that stopping one scanner neither unblocks nor
+ * reconfigures the producers of another one running at the same time.
+ */
+final class ResultBatcher {
+    enum OverflowPolicy {DROP_OLDEST, DROP_NEWEST, BLOCK}
+
+    /**
+     * Receives the batches, on the main thread.
+     */
+    interface Sink {
+        void send(List<Object> batch);
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 16;
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    // a producer blocked for longer than this drops its result
+    private static final long MAX_BLOCK_MILLIS = 500;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlush = this::flush;
+    private final Sink mSink;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final ArrayDeque<Object> mQueue = new ArrayDeque<>();
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private long mWindowMillis;
+    private int mCapacity = DEFAULT_QUEUE_CAPACITY;
+    private OverflowPolicy mPolicy = OverflowPolicy.DROP_OLDEST;
+
+    // whether a flush has been posted, and whether it runs without waiting for the window
+    private boolean mFlushScheduled;
+    private boolean mFlushImmediate;
+
+    // changed by configure() and cancelBlocked(), so that blocked producers give up
+    private int mGeneration;
+    // set while the scanner is stopping, when producers must not block
+    private boolean mBlockingSuspended;
+
+    private int mMaxDepth;
+    private long mDropped;
+    private long mBlocked;
+    private long mBatches;
+    private long mItems;
+
+    ResultBatcher(Sink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Starts a new session with the given settings, discarding any queued results.  Non-positive
+     * values select the defaults.
+     */
+    void configure(int batchSize, long windowMillis, int capacity, OverflowPolicy policy) {
+        synchronized (mLock) {
+            mBatchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+            mWindowMillis = Math.max(0, windowMillis);
+            mCapacity = capacity > 0 ? capacity : DEFAULT_QUEUE_CAPACITY;
+            mPolicy = policy != null ? policy : OverflowPolicy.DROP_OLDEST;
+
+            mQueue.clear();
+            mMainHandler.removeCallbacks(mFlush);
+            mFlushScheduled = false;
+            mFlushImmediate = false;
+            mGeneration++;
+            mBlockingSuspended = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Wakes up blocked producers, which drop their results, and keeps producers from blocking
+     * until {@link #resumeBlocking()}.  Must be called before stopping a camera source on the main
+     * thread, which waits for the detection threads.
+     */
+    void cancelBlocked() {
+        synchronized (mLock) {
+            mBlockingSuspended = true;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Lets producers block again once the scanner has restarted.
+     */
+    void resumeBlocking() {
+        synchronized (mLock) {
+            mBlockingSuspended = false;
+        }
+    }
+
+    /**
+     * Queues a result.  Called on the detection threads; may block with the BLOCK policy.
+     */
+    void offer(Object result) {
+        synchronized (mLock) {
+            int generation = mGeneration;
+            long deadline = 0;
+            while (mQueue.size() >= mCapacity) {
+                if (mPolicy == OverflowPolicy.DROP_NEWEST || mBlockingSuspended) {
+                    mDropped++;
+                    return;
+                }
+                // the main thread drains the queue, so it must never wait for it
+                if (mPolicy == OverflowPolicy.DROP_OLDEST
+                        || Looper.myLooper() == Looper.getMainLooper()) {
+                    mQueue.pollFirst();
+                    mDropped++;
+                    break;
+                }
+
+                long now = SystemClock.uptimeMillis();
+                if (deadline == 0) {
+                    deadline = now + MAX_BLOCK_MILLIS;
+                    mBlocked++;
+                } else if (now >= deadline) {
+                    mDropped++;
+                    return;
+                }
+                try {
+                    mLock.wait(deadline - now);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mDropped++;
+                    return;
+                }
+                if (generation != mGeneration) {
+                    mDropped++;
+                    return;
+                }
+            }
+
+            mQueue.addLast(result);
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+            if (mQueue.size() >= mBatchSize || mWindowMillis == 0) {
+                if (!mFlushImmediate) {
+                    mMainHandler.removeCallbacks(mFlush);
+                    mMainHandler.post(mFlush);
+                    mFlushScheduled = true;
+                    mFlushImmediate = true;
+                }
+            } else if (!mFlushScheduled) {
+                mMainHandler.postDelayed(mFlush, mWindowMillis);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Sends the next batch.  Runs on the main thread.
+     */
+    private void flush() {
+        List<Object> batch;
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            mFlushImmediate = false;
+            int count = Math.min(mQueue.size(), mBatchSize);
+            if (count == 0) {
+                return;
+            }
+
+            batch = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                batch.add(mQueue.pollFirst());
+            }
+            mBatches++;
+            mItems += count;
+            if (!mQueue.isEmpty()) {
+                // more than a full batch was queued; send the rest right after this one
+                mMainHandler.post(mFlush);
+                mFlushScheduled = true;
+                mFlushImmediate = true;
+            }
+            mLock.notifyAll();
+        }
+
+        mSink.send(batch);
+    }
+
+    Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("queueDepth", mQueue.size());
+            map.put("maxQueueDepth", mMaxDepth);
+            map.put("queueCapacity", mCapacity);
+            map.put("overflowPolicy", mPolicy.name());
+            map.put("dropped", mDropped);
+            map.put("blocked", mBlocked);
+            map.put("batches", mBatches);
+            map.put("items", mItems);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the structured scan results sent to Dart.  A result is a map of standard codec types
+ * only, so that it goes over the channels without any parceling: the raw bytes are sent as a
+ * byte array and arrive in Dart as a Uint8List, intact even for binary payloads.
+ * <p/>
+ * Coordinates are in camera frame pixels.  The frame id and timestamp are those of the frame the
+ * barcode was first detected on, or -1 if unknown.
+ */
+final class ScanResults {
+    // Value type names, indexed by the Barcode value format constants.
+    private static final String[] VALUE_TYPES = {
+            "UNKNOWN", "CONTACT_INFO", "EMAIL", "ISBN", "PHONE", "PRODUCT", "SMS", "TEXT", "URL",
+            "WIFI", "GEO", "CALENDAR_EVENT", "DRIVER_LICENSE"
+    };
+
+    private ScanResults() {
+    }
+
+    static Map<String, Object> toMap(Barcode barcode, @Nullable Frame.Metadata metadata) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("format", BarcodeFormats.name(barcode.format));
+        result.put("valueType", valueTypeName(barcode.valueFormat));
+        result.put("rawValue", barcode.rawValue);
+        result.put("displayValue", barcode.displayValue);
+        result.put("rawBytes", barcode.rawBytes != null
+                ? Arrays.copyOf(barcode.rawBytes, barcode.rawBytes.length) : null);
+
+        List<List<Integer>> corners = new ArrayList<>();
+        if (barcode.cornerPoints != null) {
+            for (Point point : barcode.cornerPoints) {
+                corners.add(Arrays.asList(point.x, point.y));
+            }
+        }
+        result.put("corners", corners);
+
+        Rect box = barcode.getBoundingBox();
+        if (box != null) {
+            Map<String, Object> boundingBox = new HashMap<>();
+            boundingBox.put("left", box.left);
+            boundingBox.put("top", box.top);
+            boundingBox.put("right", box.right);
+            boundingBox.put("bottom", box.bottom);
+            result.put("boundingBox", boundingBox);
+        }
+
+        result.put("frameId", metadata != null ? metadata.getId() : -1);
+        result.put("timestampMillis", metadata != null ? metadata.getTimestampMillis() : -1L);
+        return result;
+    }
+
+    static String valueTypeName(int valueFormat) {
+        return valueFormat > 0 && valueFormat < VALUE_TYPES.length
+                ? VALUE_TYPES[valueFormat] : VALUE_TYPES[0];
+    }
+}
@@ -0,0 +1,84 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.content.Context;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.DecodePyramid;
+import com.amolg.flutterbarcodescanner.camera.FrameRateGovernor;
+import com.amolg.flutterbarcodescanner.camera.LightingController;
+import com.amolg.flutterbarcodescanner.camera.PreviewBufferPool;
+import com.amolg.flutterbarcodescanner.camera.SharpnessGate;
+import com.amolg.flutterbarcodescanner.constants.AppConstants;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+/**
+ * The detection pipeline shared by the scanner activity and the embedded scanner: the detector
+ * configuration and the camera source stages in front of it.
+ */
+final class ScannerPipeline {
+    private ScannerPipeline() {
+    }
+
+    /**
+     * Returns a detector for the given formats, leased from the {@link DetectorHolder} so that
+     * one left over from an earlier session is reused.  Camera sources built by
+     * {@link #newCameraSourceBuilder} hand their detectors back when released.
+     */
+    static BarcodeDetector createDetector(Context context, int formats) {
+        return DetectorHolder.getInstance().acquire(context, formats);
+    }
+
+    /**
+     * Returns a camera source builder for the given detector and result processor, with the
+     * detection workers and all pipeline stages configured.  Note that this uses a higher
+     * resolution in comparison to other detection examples to enable the barcode detector to
+     * detect small barcodes at long distances.
+     */
+    static CameraSource.Builder newCameraSourceBuilder(Context context, BarcodeDetector detector,
+                                                       final int formats,
+                                                       Detector.Processor<Barcode> processor,
+                                                       PreviewBufferPool bufferPool) {
+        final Context appContext = context.getApplicationContext();
+        return new CameraSource.Builder(appContext, detector)
+                .setRequestedPreviewSize(1600, 1024)
+                .setRequestedFps(30.0f)
+                .setProcessor(processor)
+                .setPreviewBufferPool(bufferPool)
+                .setDetectionMapper(new BarcodeDetectionMapper())
+                .setDecodePyramid(new DecodePyramid(AppConstants.BARCODE_DECODE_DOWNSAMPLING))
+                .setDetectionWorkers(getDetectionWorkerCount(),
+                        () -> createDetector(appContext, formats))
+                .setDetectorRecycler(DetectorHolder.getInstance())
+                .setDetectionObserver(new FormatDecodeTimings(formats))
+                .setFrameRateGovernor(new FrameRateGovernor())
+                .setSharpnessGate(new SharpnessGate())
+                .setLightingController(new LightingController())
+                .setPipelineStats(ScannerStats.getInstance().getPipelineStats());
+    }
+
+    /**
+     * Returns the reconfiguration switching the given camera source, built by
+     * {@link #newCameraSourceBuilder}, to detectors for other formats.
+     */
+    static CameraSource.Reconfiguration newDetectorReconfiguration(Context context,
+                                                                   CameraSource cameraSource,
+                                                                   final int formats) {
+        final Context appContext = context.getApplicationContext();
+        FormatDecodeTimings timings = FormatDecodeTimings.of(cameraSource);
+        if (timings != null) {
+            timings.setActiveFormats(formats);
+        }
+        return new CameraSource.Reconfiguration().setDetectors(createDetector(appContext, formats),
+                () -> createDetector(appContext, formats));
+    }
+
+    /**
+     * Uses one detection worker per spare core, leaving one core for the camera and UI threads.
+     */
+    static int getDetectionWorkerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 1, AppConstants.BARCODE_DETECTION_WORKERS_MAX));
+    }
+}
@@ -0,0 +1,173 @@
+package com.amolg.flutterbarcodescanner;
+
+import androidx.annotation.Nullable;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.ControlStats;
+import com.amolg.flutterbarcodescanner.camera.DecodePyramid;
+import com.amolg.flutterbarcodescanner.camera.FrameRateGovernor;
+import com.amolg.flutterbarcodescanner.camera.LightingController;
+import com.amolg.flutterbarcodescanner.camera.PipelineStats;
+import com.amolg.flutterbarcodescanner.camera.PreviewBufferPool;
+import com.amolg.flutterbarcodescanner.camera.SharpnessGate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide scanner statistics, as reported by the getScannerStats method call.  The pipeline
+ * timings are shared by every camera source, so they accumulate across scan sessions and camera
+ * switches; buffer and decode pyramid counters and the decode timings by format are those of the
+ * most recent camera source.
+ */
+final class ScannerStats {
+    private static final ScannerStats sInstance = new ScannerStats();
+
+    private final PipelineStats mPipeline = new PipelineStats();
+
+    // Only the pool, the pipeline stages and the counters are kept, not the camera source, which
+    // references the activity.
+    private volatile PreviewBufferPool mBufferPool;
+    private volatile DecodePyramid mDecodePyramid;
+    private volatile FormatDecodeTimings mFormatTimings;
+    private volatile FrameRateGovernor mFrameRateGovernor;
+    private volatile SharpnessGate mSharpnessGate;
+    private volatile LightingController mLightingController;
+    private volatile ControlStats mControlStats;
+    private volatile AutoZoomController mAutoZoom;
+    private volatile FocusController mFocus;
+    private volatile ResultBatcher mResultBatcher;
+
+    private ScannerStats() {
+    }
+
+    static ScannerStats getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the pipeline statistics to build every camera source with.
+     */
+    PipelineStats getPipelineStats() {
+        return mPipeline;
+    }
+
+    /**
+     * Reports the buffer, decode pyramid, decode timing, frame rate, sharpness, lighting and
+     * camera control counters of the given camera source from now on.
+     */
+    void setCameraSource(@Nullable CameraSource cameraSource) {
+        mBufferPool = cameraSource == null ? null : cameraSource.getPreviewBufferPool();
+        mDecodePyramid = cameraSource == null ? null : cameraSource.getDecodePyramid();
+        mFormatTimings = cameraSource == null ? null : FormatDecodeTimings.of(cameraSource);
+        mFrameRateGovernor = cameraSource == null ? null : cameraSource.getFrameRateGovernor();
+        mSharpnessGate = cameraSource == null ? null : cameraSource.getSharpnessGate();
+        mLightingController = cameraSource == null ? null : cameraSource.getLightingController();
+        mControlStats = cameraSource == null ? null : cameraSource.getControlStats();
+    }
+
+    /**
+     * Stops reporting the lighting controller of the given camera source once its scan session
+     * has ended, unless a newer camera source is reported already.
+     */
+    void endSession(CameraSource cameraSource) {
+        if (mControlStats == cameraSource.getControlStats()) {
+            mLightingController = null;
+        }
+    }
+
+    /**
+     * Reports the given auto zoom from now on, or none for null.
+     */
+    void setAutoZoomController(@Nullable AutoZoomController autoZoom) {
+        mAutoZoom = autoZoom;
+    }
+
+    /**
+     * Reports the given focus controller from now on, or none for null.
+     */
+    void setFocusController(@Nullable FocusController focus) {
+        mFocus = focus;
+    }
+
+    /**
+     * Reports the result delivery of the given batcher from now on, or none for null.
+     */
+    void setResultBatcher(@Nullable ResultBatcher resultBatcher) {
+        mResultBatcher = resultBatcher;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("pipeline", mPipeline.toMap());
+        map.put("duplicates", DuplicateFilter.getInstance().toMap());
+        map.put("detectors", DetectorHolder.getInstance().toMap());
+
+        PreviewBufferPool pool = mBufferPool;
+        if (pool != null) {
+            Map<String, Object> buffers = new HashMap<>();
+            buffers.put("capacity", pool.getCapacity());
+            buffers.put("inFlight", pool.getBuffersInFlight());
+            buffers.put("starvation", pool.getStarvationCount());
+            buffers.put("reallocations", pool.getReallocationCount());
+            map.put("buffers", buffers);
+        }
+
+        ResultBatcher resultBatcher = mResultBatcher;
+        if (resultBatcher != null) {
+            map.put("delivery", resultBatcher.toMap());
+        }
+
+        FormatDecodeTimings timings = mFormatTimings;
+        if (timings != null) {
+            map.put("formats", timings.toMap());
+        }
+
+        FrameRateGovernor governor = mFrameRateGovernor;
+        if (governor != null) {
+            map.put("frameRate", governor.toMap());
+        }
+
+        ControlStats control = mControlStats;
+        if (control != null) {
+            map.put("control", control.toMap());
+        }
+
+        LightingController lighting = mLightingController;
+        if (lighting != null) {
+            map.put("lighting", lighting.toMap());
+        }
+
+        FocusController focus = mFocus;
+        if (focus != null) {
+            map.put("focus", focus.toMap());
+        }
+
+        AutoZoomController autoZoom = mAutoZoom;
+        if (autoZoom != null) {
+            map.put("autoZoom", autoZoom.toMap());
+        }
+
+        SharpnessGate gate = mSharpnessGate;
+        if (gate != null) {
+            map.put("sharpness", gate.toMap());
+        }
+
+        DecodePyramid pyramid = mDecodePyramid;
+        if (pyramid != null) {
+            List<Map<String, Object>> levels = new ArrayList<>();
+            for (int level = 0; level < pyramid.getLevelCount(); ++level) {
+                Map<String, Object> stats = new HashMap<>();
+                stats.put("factor", pyramid.getFactor(level));
+                stats.put("attempts", pyramid.getAttempts(level));
+                stats.put("hits", pyramid.getHits(level));
+                stats.put("hitRate", (double) pyramid.getHitRate(level));
+                levels.add(stats);
+            }
+            map.put("pyramid", levels);
+        }
+        return map;
+    }
+}
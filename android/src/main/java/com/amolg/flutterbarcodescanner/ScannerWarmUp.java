@@ -0,0 +1,196 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.Manifest;
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+import androidx.annotation.WorkerThread;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.PreviewBufferPool;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a scanner prepared ahead of the scan, so that the scanner activity shows a decoding
+ * preview almost immediately.  Preparing does the slow part of starting a scan in the background:
+ * checking Google Play services, building the detectors (which may load the native library),
+ * running them once on a blank frame, opening the camera, negotiating its settings and allocating
+ * the preview buffers.
+ * <p/>
+ * The next scan activity with the same formats and camera takes over the prepared camera source;
+ * its tracker factory is only attached then.  A prepared source which is not taken within the
+ * idle timeout is released, so that the camera is not held open indefinitely.
+ */
+final class ScannerWarmUp {
+    private static final ScannerWarmUp sInstance = new ScannerWarmUp();
+
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mIdleRelease = this::release;
+
+    // This lock guards the prepared scanner below.
+    private final Object mLock = new Object();
+    private CameraSource mCameraSource;
+    private DelegatingFactory mFactory;
+    private int mFormats;
+    private int mFacing;
+
+    private volatile boolean mPlayServicesAvailable;
+
+    private ScannerWarmUp() {
+    }
+
+    static ScannerWarmUp getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Prepares a scanner for the given formats and camera, replacing any scanner prepared before.
+     * Blocks until the camera is open, so it must be called on a background thread.  Returns how
+     * long preparing took and the negotiated preview size.
+     *
+     * @throws IOException if the camera could not be opened
+     */
+    @WorkerThread
+    @RequiresPermission(Manifest.permission.CAMERA)
+    Map<String, Object> prepare(Context context, int formats, int facing, long idleTimeoutMillis)
+            throws IOException {
+        long startMillis = SystemClock.elapsedRealtime();
+        Context appContext = context.getApplicationContext();
+        int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(appContext);
+        if (code != ConnectionResult.SUCCESS) {
+            throw new IllegalStateException("Google Play services unavailable: " + code);
+        }
+        mPlayServicesAvailable = true;
+        release();
+
+        DelegatingFactory factory = new DelegatingFactory();
+        BarcodeDetector detector = ScannerPipeline.createDetector(appContext, formats);
+        CameraSource source = ScannerPipeline.newCameraSourceBuilder(appContext, detector, formats,
+                new MultiProcessor.Builder<Barcode>(factory).build(), new PreviewBufferPool(0))
+                .setFacing(facing)
+                .setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                .build();
+        source.warmUpDetectors();
+
+        // Published before the camera is opened, so that a scan starting meanwhile takes this
+        // source and waits for the camera instead of failing to open it a second time.
+        synchronized (mLock) {
+            mCameraSource = source;
+            mFactory = factory;
+            mFormats = formats;
+            mFacing = facing;
+        }
+        try {
+            source.prepare();
+        } catch (IOException | RuntimeException e) {
+            if (takeIfCurrent(source)) {
+                source.release();
+            }
+            throw e;
+        }
+
+        mMainHandler.removeCallbacks(mIdleRelease);
+        mMainHandler.postDelayed(mIdleRelease, idleTimeoutMillis > 0
+                ? idleTimeoutMillis : DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+        Map<String, Object> description = new HashMap<>();
+        description.put("prepareMillis", SystemClock.elapsedRealtime() - startMillis);
+        Size size = source.getPreviewSize();
+        if (size != null) {
+            description.put("previewWidth", size.getWidth());
+            description.put("previewHeight", size.getHeight());
+        }
+        return description;
+    }
+
+    /**
+     * Hands the prepared camera source over to a scan with the given formats and camera, with
+     * the given tracker factory attached.  Returns null if no matching scanner is prepared; a
+     * prepared scanner which does not match is released, as it holds the camera.
+     */
+    @Nullable
+    CameraSource take(int formats, int facing, MultiProcessor.Factory<Barcode> factory) {
+        CameraSource source;
+        synchronized (mLock) {
+            source = mCameraSource;
+            if (source == null) {
+                return null;
+            }
+            if (mFormats == formats && mFacing == facing) {
+                mFactory.mTarget = factory;
+                mCameraSource = null;
+                mFactory = null;
+                mMainHandler.removeCallbacks(mIdleRelease);
+                return source;
+            }
+        }
+        release();
+        return null;
+    }
+
+    /**
+     * Returns true once Google Play services have been found available, so that a scan does not
+     * have to check again.
+     */
+    boolean isPlayServicesAvailable() {
+        return mPlayServicesAvailable;
+    }
+
+    /**
+     * Releases the prepared scanner, if any, closing the camera.
+     */
+    void release() {
+        CameraSource source;
+        synchronized (mLock) {
+            source = mCameraSource;
+            mCameraSource = null;
+            mFactory = null;
+        }
+        mMainHandler.removeCallbacks(mIdleRelease);
+        if (source != null) {
+            source.release();
+        }
+    }
+
+    private boolean takeIfCurrent(CameraSource source) {
+        synchronized (mLock) {
+            if (mCameraSource != source) {
+                return false;
+            }
+            mCameraSource = null;
+            mFactory = null;
+            return true;
+        }
+    }
+
+    /**
+     * Tracker factory of a prepared scanner, forwarding to the factory of the scan which takes
+     * it over.  Barcodes cannot be tracked before that, as the camera preview is not running.
+     */
+    private static final class DelegatingFactory implements MultiProcessor.Factory<Barcode> {
+        volatile MultiProcessor.Factory<Barcode> mTarget;
+
+        @Override
+        public Tracker<Barcode> create(Barcode barcode) {
+            MultiProcessor.Factory<Barcode> target = mTarget;
+            return target != null ? target.create(barcode) : new Tracker<Barcode>();
+        }
+    }
+}
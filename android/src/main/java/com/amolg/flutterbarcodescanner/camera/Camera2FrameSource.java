@@ -0,0 +1,368 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.Manifest;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame source using the camera2 API.  Frames are read from an {@link ImageReader} in
+ * YUV_420_888 format, and the luma plane of each image is handed to the detection pipeline as a
+ * direct buffer, without copying it onto the Java heap.  The pipeline only copies the luma it
+ * decodes, i.e., the scan window or the whole plane, into an NV21 image with neutral chroma.  The
+ * image is closed once the pipeline releases the frame.
+ * <p/>
+ * Only the camera, frame size and frame rate can be chosen; zoom, flash and focus control of
+ * {@link CameraSource} do not apply to this source.
+ */
+public class Camera2FrameSource implements FrameSource {
+    private static final String TAG = "Camera2FrameSource";
+    private static final long OPEN_TIMEOUT_MILLIS = 2500;
+
+    private final Context mContext;
+    private final int mFacing;
+    private final int mRequestedWidth;
+    private final int mRequestedHeight;
+    private final float mRequestedFps;
+
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private ImageReader mImageReader;
+    private Surface mTextureSurface;
+    private volatile FrameListener mListener;
+
+    private Size mFrameSize;
+    private int mRotation;
+
+    /**
+     * Creates a source for the given camera ({@link CameraSource#CAMERA_FACING_BACK} or
+     * {@link CameraSource#CAMERA_FACING_FRONT}).  The frame size and rate closest to the requested
+     * ones are selected.
+     */
+    public Camera2FrameSource(Context context, int facing, int width, int height, float fps) {
+        if (context == null) {
+            throw new IllegalArgumentException("No context supplied.");
+        }
+        if ((facing != CameraSource.CAMERA_FACING_BACK) && (facing != CameraSource.CAMERA_FACING_FRONT)) {
+            throw new IllegalArgumentException("Invalid camera: " + facing);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Invalid fps: " + fps);
+        }
+        mContext = context.getApplicationContext();
+        mFacing = facing;
+        mRequestedWidth = width;
+        mRequestedHeight = height;
+        mRequestedFps = fps;
+    }
+
+    @Override
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void start(@Nullable SurfaceHolder preview, int frameCount, FrameListener listener)
+            throws IOException {
+        start(preview, null, frameCount, listener);
+    }
+
+    @Override
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void start(SurfaceTexture preview, int frameCount, FrameListener listener)
+            throws IOException {
+        start(null, preview, frameCount, listener);
+    }
+
+    /**
+     * Opens the camera with the preview on the given holder or texture, if any.
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private void start(@Nullable SurfaceHolder holder, @Nullable SurfaceTexture texture,
+                       int frameCount, FrameListener listener) throws IOException {
+        CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = getIdForRequestedCamera(manager);
+            if (cameraId == null) {
+                throw new IOException("Could not find requested camera.");
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            mFrameSize = selectSize(map.getOutputSizes(ImageFormat.YUV_420_888));
+            if (mFrameSize == null) {
+                throw new IOException("Could not find suitable preview size.");
+            }
+            setRotation(characteristics);
+
+            mCameraThread = new HandlerThread(TAG);
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+
+            mListener = listener;
+            mImageReader = ImageReader.newInstance(mFrameSize.getWidth(), mFrameSize.getHeight(),
+                    ImageFormat.YUV_420_888, frameCount);
+            mImageReader.setOnImageAvailableListener(this::onImageAvailable, mCameraHandler);
+
+            List<Surface> targets = new ArrayList<>();
+            targets.add(mImageReader.getSurface());
+            if (holder != null) {
+                holder.setFixedSize(mFrameSize.getWidth(), mFrameSize.getHeight());
+                targets.add(holder.getSurface());
+            } else if (texture != null) {
+                texture.setDefaultBufferSize(mFrameSize.getWidth(), mFrameSize.getHeight());
+                mTextureSurface = new Surface(texture);
+                targets.add(mTextureSurface);
+            }
+
+            mDevice = openCamera(manager, cameraId);
+            mSession = createSession(targets);
+
+            CaptureRequest.Builder request =
+                    mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface target : targets) {
+                request.addTarget(target);
+            }
+            request.set(CaptureRequest.CONTROL_AF_MODE,
+                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            Range<Integer> fpsRange = selectFpsRange(characteristics.get(
+                    CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+            if (fpsRange != null) {
+                request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            mSession.setRepeatingRequest(request.build(), null, mCameraHandler);
+        } catch (CameraAccessException | InterruptedException | RuntimeException e) {
+            stop();
+            throw new IOException("Could not start camera.", e);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (mTextureSurface != null) {
+            mTextureSurface.release();
+            mTextureSurface = null;
+        }
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            try {
+                mCameraThread.join();
+            } catch (InterruptedException e) {
+            }
+            mCameraThread = null;
+            mCameraHandler = null;
+        }
+        mListener = null;
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return mFrameSize;
+    }
+
+    @Override
+    public int getRotation() {
+        return mRotation;
+    }
+
+    @Override
+    public int getFacing() {
+        return mFacing;
+    }
+
+    /**
+     * Hands the latest image to the pipeline.  Older images still queued in the reader are
+     * dropped, and so are new ones while the pipeline holds all images the reader can provide.
+     */
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+
+        FrameListener listener = mListener;
+        if (listener == null) {
+            image.close();
+            return;
+        }
+        Image.Plane luma = image.getPlanes()[0];
+        listener.onFrame(new ImageFrame(image, luma.getBuffer(), luma.getRowStride()));
+    }
+
+    /**
+     * A frame holding an image of the reader until it is released.
+     */
+    private static final class ImageFrame extends SourceFrame {
+        private final Image mImage;
+
+        ImageFrame(Image image, ByteBuffer luma, int rowStride) {
+            super(luma, image.getWidth(), image.getHeight(), rowStride, false);
+            mImage = image;
+        }
+
+        @Override
+        public void release() {
+            mImage.close();
+        }
+    }
+
+    private String getIdForRequestedCamera(CameraManager manager) throws CameraAccessException {
+        int lensFacing = mFacing == CameraSource.CAMERA_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        for (String id : manager.getCameraIdList()) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == lensFacing) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the output size closest to the requested one, the same way as the camera1 source.
+     */
+    @Nullable
+    private Size selectSize(android.util.Size[] sizes) {
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; ++i) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        int selected = CameraSelection.selectSize(widths, heights, mRequestedWidth, mRequestedHeight);
+        return selected < 0 ? null : new Size(widths[selected], heights[selected]);
+    }
+
+    @Nullable
+    private Range<Integer> selectFpsRange(@Nullable Range<Integer>[] ranges) {
+        if (ranges == null) {
+            return null;
+        }
+        int[] minimums = new int[ranges.length];
+        int[] maximums = new int[ranges.length];
+        for (int i = 0; i < ranges.length; ++i) {
+            minimums[i] = ranges[i].getLower();
+            maximums[i] = ranges[i].getUpper();
+        }
+        int selected = CameraSelection.selectFpsRange(minimums, maximums, Math.round(mRequestedFps));
+        return selected < 0 ? null : ranges[selected];
+    }
+
+    private void setRotation(CameraCharacteristics characteristics) {
+        int degrees = CameraSource.getDisplayRotationDegrees(mContext);
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int sensorOrientation = orientation == null ? 0 : orientation;
+
+        int angle = CameraSelection.getFrameAngle(sensorOrientation, degrees,
+                mFacing == CameraSource.CAMERA_FACING_FRONT);
+        mRotation = angle / 90;
+    }
+
+    /**
+     * Opens the camera, waiting for the result so that start() fails synchronously like the
+     * camera1 source.
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private CameraDevice openCamera(CameraManager manager, String cameraId)
+            throws CameraAccessException, InterruptedException, IOException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CameraDevice[] result = new CameraDevice[1];
+        manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+                result[0] = camera;
+                opened.countDown();
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                camera.close();
+                opened.countDown();
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                Log.e(TAG, "Camera error: " + error);
+                camera.close();
+                opened.countDown();
+            }
+        }, mCameraHandler);
+
+        if (!opened.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || result[0] == null) {
+            throw new IOException("Could not open camera " + cameraId);
+        }
+        return result[0];
+    }
+
+    @SuppressWarnings("deprecation")
+    private CameraCaptureSession createSession(List<Surface> targets)
+            throws CameraAccessException, InterruptedException, IOException {
+        final CountDownLatch configured = new CountDownLatch(1);
+        final CameraCaptureSession[] result = new CameraCaptureSession[1];
+        mDevice.createCaptureSession(targets, new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession session) {
+                result[0] = session;
+                configured.countDown();
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession session) {
+                configured.countDown();
+            }
+        }, mCameraHandler);
+
+        if (!configured.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || result[0] == null) {
+            throw new IOException("Could not configure capture session.");
+        }
+        return result[0];
+    }
+}
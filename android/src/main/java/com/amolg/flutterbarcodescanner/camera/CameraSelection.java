@@ -0,0 +1,111 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+/**
+ * The camera independent part of choosing the camera settings: matching preview sizes and frame
+ * rate ranges against the requested values, and the rotation of the frames.  Shared by the
+ * camera1 and camera2 frame sources, and kept free of framework types so that it can be run
+ * against synthetic camera capabilities.
+ */
+final class CameraSelection {
+    private CameraSelection() {
+    }
+
+    /**
+     * Returns the index of the size closest to the desired one, or -1 if there are no sizes.
+     * <p/>
+     * The method for selecting the best size is to minimize the sum of the differences between
+     * the desired values and the actual values for width and height.  This is certainly not the
+     * only way to select the best size, but it provides a decent tradeoff between using the
+     * closest aspect ratio vs. using the closest pixel area.
+     */
+    static int selectSize(int[] widths, int[] heights, int desiredWidth, int desiredHeight) {
+        int selected = -1;
+        int minDiff = Integer.MAX_VALUE;
+        for (int i = 0; i < widths.length; ++i) {
+            int diff = Math.abs(widths[i] - desiredWidth) + Math.abs(heights[i] - desiredHeight);
+            if (diff < minDiff) {
+                selected = i;
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the index of the first picture size with the same aspect ratio as the preview size,
+     * within the given tolerance, or -1 if there is none.
+     */
+    static int findPictureSize(int previewWidth, int previewHeight, int[] pictureWidths,
+                               int[] pictureHeights, float tolerance) {
+        float previewAspectRatio = (float) previewWidth / (float) previewHeight;
+        for (int i = 0; i < pictureWidths.length; ++i) {
+            float pictureAspectRatio = (float) pictureWidths[i] / (float) pictureHeights[i];
+            if (Math.abs(previewAspectRatio - pictureAspectRatio) < tolerance) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the frame rate range whose bounds are closest to the desired rate, or
+     * -1 if there are no ranges.  The rates only need to share a unit, e.g., frames per second
+     * for camera2, or thousandths of them for camera1.
+     */
+    static int selectFpsRange(int[] minimums, int[] maximums, int desiredFps) {
+        int selected = -1;
+        int minDiff = Integer.MAX_VALUE;
+        for (int i = 0; i < minimums.length; ++i) {
+            int diff = Math.abs(desiredFps - minimums[i]) + Math.abs(desiredFps - maximums[i]);
+            if (diff < minDiff) {
+                selected = i;
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the index of the range with the highest maximum rate not above the limit, preferring
+     * the lower minimum among equal maximums so that auto exposure keeps room in low light.  If
+     * every range exceeds the limit, the range with the lowest maximum is returned.  Returns -1 if
+     * there are no ranges.
+     */
+    static int selectFpsRangeAtMost(int[] minimums, int[] maximums, int limitFps) {
+        int selected = -1;
+        int lowest = -1;
+        for (int i = 0; i < minimums.length; ++i) {
+            if (lowest < 0 || maximums[i] < maximums[lowest]
+                    || (maximums[i] == maximums[lowest] && minimums[i] < minimums[lowest])) {
+                lowest = i;
+            }
+            if (maximums[i] > limitFps) {
+                continue;
+            }
+            if (selected < 0 || maximums[i] > maximums[selected]
+                    || (maximums[i] == maximums[selected] && minimums[i] < minimums[selected])) {
+                selected = i;
+            }
+        }
+        return selected >= 0 ? selected : lowest;
+    }
+
+    /**
+     * Returns the clockwise angle, in degrees, by which the sensor image has to be rotated to
+     * appear upright on a display rotated by the given degrees.
+     */
+    static int getFrameAngle(int sensorOrientation, int displayDegrees, boolean frontFacing) {
+        if (frontFacing) {
+            return (sensorOrientation + displayDegrees) % 360;
+        }
+        return (sensorOrientation - displayDegrees + 360) % 360;
+    }
+
+    /**
+     * Returns the camera1 display orientation for a frame angle, which compensates for the front
+     * camera preview being mirrored.
+     */
+    static int getDisplayOrientation(int frameAngle, boolean frontFacing) {
+        return frontFacing ? (360 - frameAngle) % 360 : frameAngle;
+    }
+}
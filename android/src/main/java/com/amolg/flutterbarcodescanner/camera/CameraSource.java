@@ -20,11 +20,18 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import androidx.annotation.StringDef;
@@ -39,18 +46,23 @@ import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 
 @SuppressWarnings("deprecation")
 public class CameraSource {
+    private static final String TAG = "CameraSource";
+
     @SuppressLint("InlinedApi")
     public static final int CAMERA_FACING_BACK = CameraInfo.CAMERA_FACING_BACK;
     @SuppressLint("InlinedApi")
@@ -58,6 +70,10 @@ public class CameraSource {
     private static final int DUMMY_TEXTURE_NAME = 100;
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    // size of the blank frame used to warm up the detectors
+    private static final int WARM_UP_FRAME_WIDTH = 320;
+    private static final int WARM_UP_FRAME_HEIGHT = 240;
+
     private Context mContext;
     private final Object mCameraLock = new Object();
     private Camera mCamera;
@@ -72,8 +88,47 @@ public class CameraSource {
     private int mRequestedPreviewHeight = 768;
 
 
-    private String mFocusMode = null;
-    private String mFlashMode = null;
+    private volatile String mFocusMode = null;
+    // the focus mode set on the builder, which another camera is opened with
+    private String mRequestedFocusMode = null;
+    private volatile String mFlashMode = null;
+
+    /**
+     * Camera control runs on a dedicated thread, so that gestures, clicks and the camera callback
+     * never wait for the camera.  Parameter changes are made to a copy of the camera parameters
+     * cached when the camera opens.  Changes waiting for the control thread are merged, a newer
+     * change of a setting replacing the older one, and applied with a single setParameters call.
+     */
+    private HandlerThread mControlThread;
+    private Handler mControlHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Cached parameters of the open camera, guarded by the camera lock.
+    private Camera.Parameters mParameters;
+    // Capabilities of the open camera, from the cached parameters; a max zoom of -1 means none.
+    private volatile int mMaxZoom = -1;
+    private volatile List<Integer> mZoomRatios;
+    private volatile List<String> mSupportedFocusModes;
+    private volatile List<String> mSupportedFlashModes;
+    private volatile int mMinExposure;
+    private volatile int mMaxExposure;
+    private volatile float mExposureStep;
+    private volatile boolean mExposureLockSupported;
+    private volatile boolean mWhiteBalanceLockSupported;
+
+    // This lock guards the pending changes, the zoom and exposure targets, the focus region and
+    // changes to the controllers.
+    private final Object mChangeLock = new Object();
+    private final LinkedHashMap<String, ParameterChange> mPendingChanges = new LinkedHashMap<>();
+    private int mZoomTarget;
+    private int mExposureTarget;
+    // Focus and metering region in fractions of the upright frame, reapplied whenever the camera
+    // opens once set; a null region stands for the scan window.
+    private boolean mFocusRegionSet;
+    private RectF mFocusRegion;
+    // Copied on change, so that the detection workers iterate without locking.
+    private volatile DetectionController[] mDetectionControllers = new DetectionController[0];
+    private final ControlStats mControlStats = new ControlStats();
 
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
@@ -82,18 +137,58 @@ public class CameraSource {
     private SurfaceTexture mDummySurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
+     * Source of the frames fed to the detectors.  By default, the camera opened through the
+     * camera1 API by this class.  The rotation of the frames is read when the source starts.
+     */
+    private FrameSource mFrameSource;
+    private int mFrameRotation;
+
+    // The preview target of the running source, kept to restart the camera on a reconfiguration.
+    private SurfaceHolder mPreviewHolder;
+    private SurfaceTexture mPreviewTexture;
+
+    /**
+     * Dedicated threads and associated runnables for calling into the detectors with frames, as
+     * the frames become available from the camera.
+     */
+    private Thread[] mProcessingThreads;
+    private FrameHandoff mFrameHandoff;
+    private volatile boolean mDetectionPaused;
+    private FrameProcessingRunnable[] mFrameProcessors;
+
+    /**
+     * Number of detection workers, and the factory used to create a detector for every worker
+     * beyond the first.  Detections from all workers are delivered to the processor in frame order.
+     */
+    private int mWorkerCount = 1;
+    private DetectorFactory mDetectorFactory;
+    private DetectorRecycler mDetectorRecycler;
+    private Detector.Processor mProcessor;
+    private FrameSequencer mSequencer;
+    private DetectionMapper mDetectionMapper;
+    private DecodePyramid mDecodePyramid;
+    private DetectionObserver mDetectionObserver;
+    private PipelineStats mStats;
+    private FrameRateGovernor mFrameRateGovernor;
+    private SharpnessGate mSharpnessGate;
+    private LightingController mLightingController;
+
+    // Supported and current preview fps ranges of the camera1 source, for the frame rate governor.
+    private List<int[]> mSupportedFpsRanges;
+    private volatile int[] mPreviewFpsRange;
+
+    /**
+     * Scan window in normalized, as displayed coordinates, and the matching region of the camera
+     * frames.  Only that region is handed to the detector; null means the whole frame.
      */
-    private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
+    private RectF mScanWindow;
+    private volatile CropRegion mCropRegion;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Pool of the preview buffers handed to the camera.  We use byte buffers internally because
+     * this is a more efficient way to call into native code later (avoids a potential copy).
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private PreviewBufferPool mBufferPool;
 
 
     @StringDef({
@@ -120,6 +215,63 @@ public class CameraSource {
     private @interface FlashMode {
     }
 
+    /**
+     * Creates the additional detectors used by the detection workers.  Each worker owns its own
+     * detector, since a single native detector serializes concurrent calls.
+     */
+    public interface DetectorFactory {
+        Detector<?> create();
+    }
+
+    /**
+     * Takes back the detectors of a released camera source, e.g., to keep them for a later
+     * session instead of initializing new native detectors.  Without a recycler the detectors are
+     * released along with the camera source.
+     */
+    public interface DetectorRecycler {
+        void recycle(Detector<?> detector);
+    }
+
+    /**
+     * Maps detection results from the coordinates of the frame handed to the detector back to the
+     * coordinates of the full, upright camera frame.  Used when only part of a frame, or a scaled
+     * version of it, is sent to the detector.
+     */
+    public interface DetectionMapper {
+        /**
+         * Transforms every point of the detected items as {@code point * scale + offset}.
+         */
+        void map(SparseArray<?> detections, float scale, int offsetX, int offsetY);
+    }
+
+    /**
+     * Notified on the detection worker threads after every frame has been decoded, e.g., to
+     * collect timing statistics.  Implementations must be thread-safe and fast.
+     */
+    public interface DetectionObserver {
+        /**
+         * @param detections  the results of the frame, or null if detection failed
+         * @param detectNanos the time spent in the detector for this frame
+         */
+        void onFrameDetected(@Nullable SparseArray<?> detections, long detectNanos);
+    }
+
+    /**
+     * Steers the camera from what the detector finds, e.g., zooming in on small barcodes.  Called
+     * on the detection worker threads after every decoded frame, so implementations must be
+     * thread-safe and fast; they change the camera through the control methods of the camera
+     * source, which do not block.
+     */
+    public interface DetectionController {
+        /**
+         * @param detections  the results of the frame, in upright frame coordinates
+         * @param frameWidth  the width of the upright frame
+         * @param frameHeight the height of the upright frame
+         */
+        void onFrameDetected(CameraSource source, SparseArray<?> detections, int frameWidth,
+                             int frameHeight);
+    }
+
     /**
      * Builder for configuring and creating an associated camera source.
      */
@@ -157,6 +309,7 @@ public class CameraSource {
 
         public Builder setFocusMode(@FocusMode String mode) {
             mCameraSource.mFocusMode = mode;
+            mCameraSource.mRequestedFocusMode = mode;
             return this;
         }
 
@@ -196,12 +349,244 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets the processor which receives the detection results, in frame order.  When set, the
+         * results go to it instead of any processor set on the detector.  Required when more than
+         * one detection worker is used.
+         */
+        public Builder setProcessor(Detector.Processor<?> processor) {
+            mCameraSource.mProcessor = processor;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads running detection in parallel.  Camera frames are handed to
+         * whichever worker is free, and results are delivered to the processor in frame order.
+         * The first worker uses the detector supplied to the builder; the others use detectors
+         * created by the supplied factory.  Default: 1.
+         */
+        public Builder setDetectionWorkers(int count, DetectorFactory factory) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Invalid detection worker count: " + count);
+            }
+            if (count > 1 && factory == null) {
+                throw new IllegalArgumentException("No detector factory supplied.");
+            }
+            mCameraSource.mWorkerCount = count;
+            mCameraSource.mDetectorFactory = factory;
+            return this;
+        }
+
+        /**
+         * Sets the recycler the detectors are handed back to on {@link CameraSource#release()},
+         * instead of being released, so that they can be shared with later camera sources.
+         * Default: none.
+         */
+        public Builder setDetectorRecycler(DetectorRecycler recycler) {
+            mCameraSource.mDetectorRecycler = recycler;
+            return this;
+        }
+
+        /**
+         * Sets the mapper used to translate detections made on a cropped frame back to full frame
+         * coordinates.  Without a mapper, results are reported relative to the scan window.
+         */
+        public Builder setDetectionMapper(DetectionMapper mapper) {
+            mCameraSource.mDetectionMapper = mapper;
+            return this;
+        }
+
+        /**
+         * Sets the multi-scale decode stage, which tries downsampled frames before the full
+         * resolution one.  Requires a processor.  Default: none, every frame is decoded at full
+         * resolution only.
+         */
+        public Builder setDecodePyramid(DecodePyramid pyramid) {
+            mCameraSource.mDecodePyramid = pyramid;
+            return this;
+        }
+
+        /**
+         * Sets an observer notified after each frame has been decoded.  Requires a processor.
+         */
+        public Builder setDetectionObserver(DetectionObserver observer) {
+            mCameraSource.mDetectionObserver = observer;
+            return this;
+        }
+
+        /**
+         * Sets the source of the frames, e.g., a {@link Camera2FrameSource}.  The camera settings
+         * of this builder, as well as zoom, flash and focus control, only apply to the default
+         * source, which uses the camera1 API.
+         */
+        public Builder setFrameSource(FrameSource frameSource) {
+            if (frameSource == null) {
+                throw new IllegalArgumentException("No frame source supplied.");
+            }
+            mCameraSource.mFrameSource = frameSource;
+            return this;
+        }
+
+        /**
+         * Sets the governor which drops stale frames and adapts the preview frame rate to the
+         * detect latency.  Default: none, the requested frame rate is kept.
+         */
+        public Builder setFrameRateGovernor(FrameRateGovernor governor) {
+            mCameraSource.mFrameRateGovernor = governor;
+            return this;
+        }
+
+        /**
+         * Sets the gate which skips blurry frames before detection.  Default: none, every frame
+         * is decoded.
+         */
+        public Builder setSharpnessGate(SharpnessGate gate) {
+            mCameraSource.mSharpnessGate = gate;
+            return this;
+        }
+
+        /**
+         * Sets the controller which adapts the exposure, and optionally the torch, to the scene
+         * brightness and skips frames too dark to decode.  Default: none.
+         */
+        public Builder setLightingController(LightingController controller) {
+            mCameraSource.mLightingController = controller;
+            return this;
+        }
+
+        /**
+         * Sets the statistics the pipeline timings and counters are recorded into.  Default: a
+         * private instance.
+         */
+        public Builder setPipelineStats(PipelineStats stats) {
+            if (stats == null) {
+                throw new IllegalArgumentException("No pipeline stats supplied.");
+            }
+            mCameraSource.mStats = stats;
+            return this;
+        }
+
+        /**
+         * Sets the pool providing the camera preview buffers.  Sharing one pool between camera
+         * sources (e.g., when switching between the front and back camera) avoids reallocating
+         * the buffers as long as the preview size stays the same.  Default: a private pool.
+         */
+        public Builder setPreviewBufferPool(PreviewBufferPool pool) {
+            if (pool == null) {
+                throw new IllegalArgumentException("No buffer pool supplied.");
+            }
+            mCameraSource.mBufferPool = pool;
+            return this;
+        }
+
         /**
          * Creates an instance of the camera source.
          */
+        @SuppressWarnings("unchecked")
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
-            return mCameraSource;
+            CameraSource source = mCameraSource;
+            if (source.mWorkerCount > 1 && source.mProcessor == null) {
+                throw new IllegalStateException("A processor is required for multiple detection workers.");
+            }
+            if (source.mDecodePyramid != null && source.mProcessor == null) {
+                throw new IllegalStateException("A processor is required for the decode pyramid.");
+            }
+            if (source.mProcessor != null) {
+                // Detections reach the processor through the sequencer, not the detector, so
+                // that the detectors stay free of session state and can be recycled.
+                source.mSequencer = new FrameSequencer(source.mProcessor);
+            }
+
+            if (source.mBufferPool == null) {
+                source.mBufferPool = new PreviewBufferPool(0);
+            }
+            if (source.mStats == null) {
+                source.mStats = new PipelineStats();
+            }
+            if (source.mFrameSource == null) {
+                source.mFrameSource = source.new Camera1FrameSource();
+            }
+            if (source.mFrameRateGovernor != null) {
+                source.mFrameRateGovernor.configure(source.mWorkerCount, source.mRequestedFps);
+            }
+
+            source.mControlThread = new HandlerThread("CameraSource-Control");
+            source.mControlThread.start();
+            source.mControlHandler = new Handler(source.mControlThread.getLooper());
+
+            source.mFrameHandoff = source.new FrameHandoff();
+            source.mFrameProcessors = new FrameProcessingRunnable[source.mWorkerCount];
+            source.mFrameProcessors[0] = source.new FrameProcessingRunnable(mDetector);
+            for (int i = 1; i < source.mWorkerCount; ++i) {
+                source.mFrameProcessors[i] =
+                        source.new FrameProcessingRunnable(source.mDetectorFactory.create());
+            }
+            return source;
+        }
+    }
+
+    /**
+     * Changes to apply to a camera source with {@link #reconfigure(Reconfiguration)}.  Settings
+     * which are not set keep their current values.
+     */
+    public static class Reconfiguration {
+        private int mFacing = -1;
+        private int mRequestedPreviewWidth;
+        private int mRequestedPreviewHeight;
+        private float mRequestedFps;
+        private Detector<?> mDetector;
+        private DetectorFactory mDetectorFactory;
+
+        /**
+         * Switches to the given camera, {@link #CAMERA_FACING_BACK} or {@link #CAMERA_FACING_FRONT}.
+         */
+        public Reconfiguration setFacing(int facing) {
+            if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
+                throw new IllegalArgumentException("Invalid camera: " + facing);
+            }
+            mFacing = facing;
+            return this;
+        }
+
+        public Reconfiguration setRequestedPreviewSize(int width, int height) {
+            final int MAX = 1000000;
+            if ((width <= 0) || (width > MAX) || (height <= 0) || (height > MAX)) {
+                throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+            }
+            mRequestedPreviewWidth = width;
+            mRequestedPreviewHeight = height;
+            return this;
+        }
+
+        public Reconfiguration setRequestedFps(float fps) {
+            if (fps <= 0) {
+                throw new IllegalArgumentException("Invalid fps: " + fps);
+            }
+            mRequestedFps = fps;
+            return this;
+        }
+
+        /**
+         * Replaces the detectors, e.g., to look for other barcode formats.  The first worker gets
+         * the given detector; the others get one from the factory, as with
+         * {@link Builder#setDetectionWorkers(int, DetectorFactory)}.  The replaced detectors are
+         * released, or handed to the detector recycler.
+         */
+        public Reconfiguration setDetectors(Detector<?> detector, @Nullable DetectorFactory factory) {
+            if (detector == null) {
+                throw new IllegalArgumentException("No detector supplied.");
+            }
+            mDetector = detector;
+            mDetectorFactory = factory;
+            return this;
+        }
+
+        boolean changesCamera(CameraSource source) {
+            return (mFacing >= 0 && mFacing != source.mFacing)
+                    || (mRequestedPreviewWidth > 0
+                    && (mRequestedPreviewWidth != source.mRequestedPreviewWidth
+                    || mRequestedPreviewHeight != source.mRequestedPreviewHeight))
+                    || (mRequestedFps > 0 && mRequestedFps != source.mRequestedFps);
         }
     }
 
@@ -265,12 +650,68 @@ public class CameraSource {
     }
 
     /**
-     * Stops the camera and releases the resources of the camera and underlying detector.
+     * Receives the outcome of a camera control operation, on the main thread.
+     */
+    public interface ControlCallback {
+        /**
+         * @param success true if the camera accepted the change
+         */
+        void onComplete(boolean success);
+    }
+
+    /**
+     * Stops the camera and releases the resources of the camera, the processor and the underlying
+     * detectors.  With a detector recycler, the detectors are handed back to it instead.
      */
     public void release() {
         synchronized (mCameraLock) {
             stop();
-            mFrameProcessor.release();
+            for (FrameProcessingRunnable processor : mFrameProcessors) {
+                processor.release();
+            }
+            if (mProcessor != null) {
+                mProcessor.release();
+                mProcessor = null;
+            }
+            // commands already queued still run, and find the camera closed
+            mControlThread.quitSafely();
+        }
+    }
+
+    /**
+     * Opens the camera and negotiates its settings without starting the preview, so that a later
+     * start shows frames almost immediately.  May be called on a background thread; a start
+     * called meanwhile waits for it.  The camera stays open until {@link #stop()}.
+     *
+     * @throws IOException if the camera could not be opened
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void prepare() throws IOException {
+        synchronized (mCameraLock) {
+            if (mProcessingThreads == null) {
+                mFrameSource.prepare(getFrameCount(), mFrameHandoff);
+            }
+        }
+    }
+
+    /**
+     * Runs every detector once on a blank frame, so that the native detector is loaded and its
+     * first real frame is not slowed down by initialization.  Must not be called while started.
+     */
+    public void warmUpDetectors() {
+        synchronized (mCameraLock) {
+            if (mProcessingThreads != null) {
+                return;
+            }
+            int width = WARM_UP_FRAME_WIDTH;
+            int height = WARM_UP_FRAME_HEIGHT;
+            ByteBuffer blank = ByteBuffer.allocateDirect(width * height * 3 / 2);
+            Frame frame = new Frame.Builder()
+                    .setImageData(blank, width, height, ImageFormat.NV21)
+                    .build();
+            for (FrameProcessingRunnable processor : mFrameProcessors) {
+                processor.warmUp(frame);
+            }
         }
     }
 
@@ -283,26 +724,14 @@ public class CameraSource {
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mProcessingThreads != null) {
                 return this;
             }
 
-            mCamera = createCamera();
-
-            // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
-            // old version of Android. fall back to use SurfaceView.
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-                mCamera.setPreviewTexture(mDummySurfaceTexture);
-            } else {
-                mDummySurfaceView = new SurfaceView(mContext);
-                mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
-            }
-            mCamera.startPreview();
-
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            mFrameSource.start((SurfaceHolder) null, getFrameCount(), mFrameHandoff);
+            mPreviewHolder = null;
+            mPreviewTexture = null;
+            startProcessingThreads();
         }
         return this;
     }
@@ -317,21 +746,113 @@ public class CameraSource {
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mProcessingThreads != null) {
                 return this;
             }
 
-            mCamera = createCamera();
-            mCamera.setPreviewDisplay(surfaceHolder);
-            mCamera.startPreview();
+            mFrameSource.start(surfaceHolder, getFrameCount(), mFrameHandoff);
+            mPreviewHolder = surfaceHolder;
+            mPreviewTexture = null;
+            startProcessingThreads();
+        }
+        return this;
+    }
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector.  The preview
+     * is displayed on the supplied texture, e.g., a Flutter texture; its buffer size is set to the
+     * preview size.
+     *
+     * @param texture the texture to use for the preview frames
+     * @throws IOException if the supplied texture could not be used for the preview
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public CameraSource start(SurfaceTexture texture) throws IOException {
+        synchronized (mCameraLock) {
+            if (mProcessingThreads != null) {
+                return this;
+            }
+
+            mFrameSource.start(texture, getFrameCount(), mFrameHandoff);
+            mPreviewHolder = null;
+            mPreviewTexture = texture;
+            startProcessingThreads();
         }
         return this;
     }
 
+    /**
+     * Changes the camera, preview size, frame rate or detectors in place.  The detection threads,
+     * the processor and its trackers, the buffer pool and the detectors which are not replaced
+     * are kept: switching the camera of a running source only costs reopening the camera, with
+     * the same preview target.  Replaced detectors are swapped by each worker between two frames.
+     * <p/>
+     * Camera settings can only be changed for the default camera1 frame source.
+     *
+     * @throws IOException if the camera could not be restarted; the source is stopped then
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void reconfigure(Reconfiguration change) throws IOException {
+        synchronized (mCameraLock) {
+            boolean cameraChanged = change.changesCamera(this);
+            if (cameraChanged && !(mFrameSource instanceof Camera1FrameSource)) {
+                throw new IllegalStateException("Camera settings can only be changed for the camera1 source.");
+            }
+
+            if (change.mDetector != null) {
+                if (mWorkerCount > 1 && change.mDetectorFactory == null) {
+                    throw new IllegalArgumentException("No detector factory supplied.");
+                }
+                mDetectorFactory = change.mDetectorFactory;
+                mFrameProcessors[0].replaceDetector(change.mDetector, mProcessingThreads != null);
+                for (int i = 1; i < mFrameProcessors.length; ++i) {
+                    mFrameProcessors[i].replaceDetector(mDetectorFactory.create(),
+                            mProcessingThreads != null);
+                }
+            }
+            if (!cameraChanged) {
+                return;
+            }
+
+            if (change.mFacing >= 0 && change.mFacing != mFacing) {
+                mFacing = change.mFacing;
+                // the focus mode of the other camera may be missing on this one, or have been
+                // chosen for what that camera saw
+                mFocusMode = mRequestedFocusMode;
+            }
+            if (change.mRequestedPreviewWidth > 0) {
+                mRequestedPreviewWidth = change.mRequestedPreviewWidth;
+                mRequestedPreviewHeight = change.mRequestedPreviewHeight;
+            }
+            if (change.mRequestedFps > 0) {
+                mRequestedFps = change.mRequestedFps;
+                if (mFrameRateGovernor != null) {
+                    mFrameRateGovernor.configure(mWorkerCount, mRequestedFps);
+                }
+            }
+
+            // A prepared or running camera has to be reopened with the new settings.
+            mFrameSource.stop();
+            mFrameHandoff.discardPendingFrame();
+            if (mProcessingThreads == null) {
+                return;
+            }
+            try {
+                // the workers stay parked on the handoff until the first frame of the new camera
+                if (mPreviewTexture != null) {
+                    mFrameSource.start(mPreviewTexture, getFrameCount(), mFrameHandoff);
+                } else {
+                    mFrameSource.start(mPreviewHolder, getFrameCount(), mFrameHandoff);
+                }
+            } catch (IOException | RuntimeException e) {
+                stop();
+                throw e;
+            }
+            mFrameRotation = mFrameSource.getRotation();
+            updateCropRegion();
+        }
+    }
+
     /**
      * Closes the camera and stops sending frames to the underlying frame detector.
      * <p/>
@@ -343,21 +864,109 @@ public class CameraSource {
      */
     public void stop() {
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
+            mFrameHandoff.setActive(false);
+            if (mProcessingThreads != null) {
+                for (Thread thread : mProcessingThreads) {
+                    try {
+                        // Wait for the threads to complete to ensure that we can't have multiple
+                        // threads executing at the same time (i.e., which would happen if we called
+                        // start too quickly after stop).
+                        thread.join();
+                    } catch (InterruptedException e) {
+                    }
                 }
-                mProcessingThread = null;
+                mProcessingThreads = null;
+            }
+            // detectors replaced while the workers were shutting down
+            for (FrameProcessingRunnable processor : mFrameProcessors) {
+                processor.applyReplacedDetector();
+            }
+
+            mFrameSource.stop();
+            mPreviewHolder = null;
+            mPreviewTexture = null;
+            // a frame may have been published while the workers were shutting down
+            mFrameHandoff.discardPendingFrame();
+        }
+    }
+
+    /**
+     * Returns the number of frames the source has to provide for the detection pipeline.  At
+     * least three plus one per detection worker are needed:
+     * <p/>
+     * one for each frame that is currently being executed upon in doing detection
+     * one for the next pending frame to process immediately upon completing detection
+     * two for the frames that the camera uses to populate future preview images
+     */
+    private int getFrameCount() {
+        return mWorkerCount + 3;
+    }
+
+    /**
+     * Starts one processing thread per detection worker.  Must be called with the camera lock held,
+     * once the frame source has been started.
+     */
+    private void startProcessingThreads() {
+        mFrameRotation = mFrameSource.getRotation();
+        updateCropRegion();
+
+        mFrameHandoff.setActive(true);
+        if (mSequencer != null) {
+            mSequencer.reset(mFrameHandoff.nextFrameId());
+        }
+
+        mProcessingThreads = new Thread[mFrameProcessors.length];
+        for (int i = 0; i < mFrameProcessors.length; ++i) {
+            mProcessingThreads[i] = new Thread(mFrameProcessors[i], "CameraSource-Detect-" + i);
+            mProcessingThreads[i].start();
+        }
+    }
+
+    /**
+     * Default frame source, driving the camera through the camera1 API with the settings of this
+     * camera source.
+     */
+    private class Camera1FrameSource implements FrameSource {
+        @Override
+        @RequiresPermission(Manifest.permission.CAMERA)
+        public void prepare(int frameCount, FrameListener listener) {
+            if (mCamera == null) {
+                mCamera = createCamera(frameCount, listener);
+            }
+        }
+
+        @Override
+        @RequiresPermission(Manifest.permission.CAMERA)
+        public void start(@Nullable SurfaceHolder preview, int frameCount, FrameListener listener)
+                throws IOException {
+            prepare(frameCount, listener);
+
+            if (preview != null) {
+                mCamera.setPreviewDisplay(preview);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
+                // old version of Android. fall back to use SurfaceView.
+                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                mCamera.setPreviewTexture(mDummySurfaceTexture);
+            } else {
+                mDummySurfaceView = new SurfaceView(mContext);
+                mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
             }
+            mCamera.startPreview();
+        }
 
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+        @Override
+        @RequiresPermission(Manifest.permission.CAMERA)
+        public void start(SurfaceTexture preview, int frameCount, FrameListener listener)
+                throws IOException {
+            prepare(frameCount, listener);
+            preview.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            mCamera.setPreviewTexture(preview);
+            mCamera.startPreview();
+        }
 
+        @Override
+        public void stop() {
             if (mCamera != null) {
                 mCamera.stopPreview();
                 mCamera.setPreviewCallbackWithBuffer(null);
@@ -370,61 +979,397 @@ public class CameraSource {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mCamera.setPreviewTexture(null);
 
-                    } else {
-                        mCamera.setPreviewDisplay(null);
-                    }
-                } catch (Exception e) {
-                }
-                mCamera.release();
-                mCamera = null;
+                    } else {
+                        mCamera.setPreviewDisplay(null);
+                    }
+                } catch (Exception e) {
+                }
+                // the detection workers may still return buffers, which must not reach the
+                // released camera
+                mBufferPool.detach();
+                mCamera.release();
+                mCamera = null;
+                cacheParameters(null);
+            }
+        }
+
+        @Override
+        public Size getFrameSize() {
+            return mPreviewSize;
+        }
+
+        @Override
+        public int getRotation() {
+            return mRotation;
+        }
+
+        @Override
+        public int getFacing() {
+            return mFacing;
+        }
+    }
+
+    /**
+     * Pauses or resumes detection while the camera keeps running, so that the preview stays live
+     * and detection resumes without reopening the camera.  Frames arriving while paused are
+     * handed straight back to the source.
+     */
+    public void setDetectionPaused(boolean paused) {
+        mDetectionPaused = paused;
+        if (paused) {
+            mFrameHandoff.discardPendingFrame();
+        }
+    }
+
+    /**
+     * Restricts detection to the given scan window.  The window is given as fractions of the
+     * displayed preview, i.e., in upright and (for the front camera) mirrored coordinates, and is
+     * mapped onto the camera frames taking the rotation and mirroring into account.  Pass null to
+     * detect on whole frames.
+     */
+    public void setScanWindow(@Nullable RectF window) {
+        synchronized (mCameraLock) {
+            mScanWindow = window == null ? null : new RectF(window);
+            updateCropRegion();
+        }
+    }
+
+    /**
+     * Recomputes the frame region matching the scan window.  Must be called with the camera lock
+     * held, whenever the window, the preview size or the rotation changes.
+     */
+    private void updateCropRegion() {
+        Size frameSize = mFrameSource.getFrameSize();
+        if (mScanWindow == null || frameSize == null) {
+            mCropRegion = null;
+            return;
+        }
+
+        float left = mScanWindow.left;
+        float right = mScanWindow.right;
+        if (mFrameSource.getFacing() == CAMERA_FACING_FRONT) {
+            // the preview of the front camera is mirrored
+            left = 1.0f - mScanWindow.right;
+            right = 1.0f - mScanWindow.left;
+        }
+        mCropRegion = CropRegion.create(frameSize.getWidth(), frameSize.getHeight(),
+                mFrameSource.getRotation(), left, mScanWindow.top, right, mScanWindow.bottom);
+    }
+
+    /**
+     * Returns the multi-scale decode stage, e.g., to read its hit rates, or null if not used.
+     */
+    @Nullable
+    public DecodePyramid getDecodePyramid() {
+        return mDecodePyramid;
+    }
+
+    /**
+     * Returns the observer notified after each decoded frame, or null if not used.
+     */
+    @Nullable
+    public DetectionObserver getDetectionObserver() {
+        return mDetectionObserver;
+    }
+
+    /**
+     * Returns the timings and counters of the detection pipeline.
+     */
+    public PipelineStats getPipelineStats() {
+        return mStats;
+    }
+
+    /**
+     * Returns the frame rate governor, or null if not used.
+     */
+    @Nullable
+    public FrameRateGovernor getFrameRateGovernor() {
+        return mFrameRateGovernor;
+    }
+
+    /**
+     * Returns the sharpness gate, or null if not used.
+     */
+    @Nullable
+    public SharpnessGate getSharpnessGate() {
+        return mSharpnessGate;
+    }
+
+    /**
+     * Returns the lighting controller, or null if not used.
+     */
+    @Nullable
+    public LightingController getLightingController() {
+        return mLightingController;
+    }
+
+    /**
+     * Returns the pool providing the preview buffers, e.g., to read its statistics.
+     */
+    public PreviewBufferPool getPreviewBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Returns the preview size that is currently in use by the underlying camera.
+     */
+    public Size getPreviewSize() {
+        return mFrameSource.getFrameSize();
+    }
+
+    /**
+     * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
+     * {@link #CAMERA_FACING_FRONT}.
+     */
+    public int getCameraFacing() {
+        return mFrameSource.getFacing();
+    }
+
+    public int doZoom(float scale) {
+        return doZoom(scale, null);
+    }
+
+    /**
+     * Zooms in for a scale above 1, or out for a scale below, and returns the target zoom level.
+     * The zoom is changed on the control thread; a burst of zoom steps is applied at once.
+     *
+     * @param callback notified once the zoom has been applied, or null
+     */
+    public int doZoom(float scale, @Nullable ControlCallback callback) {
+        int maxZoom = mMaxZoom;
+        if (maxZoom < 0) {
+            complete(callback, false);
+            return 0;
+        }
+        synchronized (mChangeLock) {
+            int currentZoom = mZoomTarget + 1;
+            float newZoom;
+            if (scale > 1) {
+                newZoom = currentZoom + scale * (maxZoom / 10);
+            } else {
+                newZoom = currentZoom * scale;
+            }
+            final int zoom = Math.max(0, Math.min(maxZoom, Math.round(newZoom) - 1));
+            mZoomTarget = zoom;
+            changeParameters("zoom", (camera, parameters) -> {
+                parameters.setZoom(zoom);
+                return true;
+            }, callback);
+            return zoom;
+        }
+    }
+
+    /**
+     * Sets the zoom level, between 0 and the maximum zoom, and returns the clamped target level.
+     * Like {@link #doZoom(float, ControlCallback)}, the zoom is changed on the control thread.
+     *
+     * @param callback notified once the zoom has been applied, or null
+     */
+    public int setZoom(int zoom, @Nullable ControlCallback callback) {
+        int maxZoom = mMaxZoom;
+        if (maxZoom < 0) {
+            complete(callback, false);
+            return 0;
+        }
+        synchronized (mChangeLock) {
+            final int level = Math.max(0, Math.min(maxZoom, zoom));
+            mZoomTarget = level;
+            changeParameters("zoom", (camera, parameters) -> {
+                parameters.setZoom(level);
+                return true;
+            }, callback);
+            return level;
+        }
+    }
+
+    /**
+     * Sets the exposure compensation index, between the minimum and maximum exposure compensation,
+     * and returns the clamped target index.  The change is applied on the control thread.
+     *
+     * @param callback notified once the exposure has been applied, or with false if the camera
+     *                 does not support exposure compensation; may be null
+     */
+    public int setExposureCompensation(int index, @Nullable ControlCallback callback) {
+        int min = mMinExposure;
+        int max = mMaxExposure;
+        if (min == max) {
+            complete(callback, false);
+            return 0;
+        }
+        synchronized (mChangeLock) {
+            final int exposure = Math.max(min, Math.min(max, index));
+            mExposureTarget = exposure;
+            changeParameters("exposure", (camera, parameters) -> {
+                parameters.setExposureCompensation(exposure);
+                return true;
+            }, callback);
+            return exposure;
+        }
+    }
+
+    /**
+     * Returns the exposure compensation index last requested, which may not have been applied
+     * yet.
+     */
+    public int getExposureCompensation() {
+        synchronized (mChangeLock) {
+            return mExposureTarget;
+        }
+    }
+
+    /**
+     * Returns the lowest exposure compensation index, or 0 if the camera is not open or does not
+     * support exposure compensation.
+     */
+    public int getMinExposureCompensation() {
+        return mMinExposure;
+    }
+
+    /**
+     * Returns the highest exposure compensation index, or 0 if the camera is not open or does not
+     * support exposure compensation.
+     */
+    public int getMaxExposureCompensation() {
+        return mMaxExposure;
+    }
+
+    /**
+     * Returns the exposure value step of one compensation index, in EV.
+     */
+    public float getExposureCompensationStep() {
+        return mExposureStep;
+    }
+
+    /**
+     * Locks or unlocks the auto-exposure and auto-white-balance, as far as the camera supports
+     * these locks, and returns false if it supports neither.  The change is applied on the
+     * control thread.
+     *
+     * @param callback notified once the locks have been applied, or null
+     */
+    public boolean setExposureLock(boolean locked, @Nullable ControlCallback callback) {
+        final boolean exposure = mExposureLockSupported;
+        final boolean whiteBalance = mWhiteBalanceLockSupported;
+        if (!exposure && !whiteBalance) {
+            complete(callback, false);
+            return false;
+        }
+        changeParameters("exposureLock", (camera, parameters) -> {
+            if (exposure) {
+                parameters.setAutoExposureLock(locked);
+            }
+            if (whiteBalance) {
+                parameters.setAutoWhiteBalanceLock(locked);
+            }
+            return true;
+        }, callback);
+        return true;
+    }
+
+    /**
+     * Focuses and meters on the given region, in fractions of the upright frame, or on the scan
+     * window for null, which covers the whole frame without a scan window.  The region is kept
+     * and applied again whenever the camera is opened.
+     *
+     * @param callback notified once the region has been applied, or with false if the camera
+     *                 supports neither focus nor metering areas; may be null
+     */
+    public void setFocusRegion(@Nullable RectF region, @Nullable ControlCallback callback) {
+        synchronized (mChangeLock) {
+            mFocusRegionSet = true;
+            mFocusRegion = region == null ? null : new RectF(region);
+            changeParameters("focusRegion",
+                    (camera, parameters) -> applyFocusRegion(parameters), callback);
+        }
+    }
+
+    /**
+     * Sets the focus and metering areas of the given parameters to the focus region.  Must be
+     * called with the camera lock held.  Returns false if the camera supports neither.
+     */
+    private boolean applyFocusRegion(Camera.Parameters parameters) {
+        boolean focus = parameters.getMaxNumFocusAreas() > 0;
+        boolean metering = parameters.getMaxNumMeteringAreas() > 0;
+        if (!focus && !metering) {
+            return false;
+        }
+
+        RectF region;
+        synchronized (mChangeLock) {
+            region = mFocusRegion;
+        }
+        if (region == null && mScanWindow != null) {
+            region = new RectF(mScanWindow);
+            if (mFacing == CAMERA_FACING_FRONT) {
+                // the preview of the front camera is mirrored
+                region.left = 1.0f - mScanWindow.right;
+                region.right = 1.0f - mScanWindow.left;
             }
         }
+
+        List<Camera.Area> areas = null;
+        if (region != null) {
+            // Areas are given in sensor orientation, from -1000 to 1000 across the field of view.
+            RectF raw = CropRegion.toRaw(mRotation, region.left, region.top, region.right,
+                    region.bottom);
+            int left = toAreaCoordinate(raw.left);
+            int top = toAreaCoordinate(raw.top);
+            Rect rect = new Rect(left, top, Math.max(left + 1, toAreaCoordinate(raw.right)),
+                    Math.max(top + 1, toAreaCoordinate(raw.bottom)));
+            areas = new ArrayList<>(1);
+            areas.add(new Camera.Area(rect, 1000));
+        }
+        if (focus) {
+            parameters.setFocusAreas(areas);
+        }
+        if (metering) {
+            parameters.setMeteringAreas(areas);
+        }
+        return true;
+    }
+
+    private static int toAreaCoordinate(float fraction) {
+        return Math.max(-1000, Math.min(999, Math.round(fraction * 2000.0f) - 1000));
     }
 
     /**
-     * Returns the preview size that is currently in use by the underlying camera.
+     * Returns the zoom level last requested, which may not have been applied yet.
      */
-    public Size getPreviewSize() {
-        return mPreviewSize;
+    public int getZoom() {
+        synchronized (mChangeLock) {
+            return mZoomTarget;
+        }
     }
 
     /**
-     * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
-     * {@link #CAMERA_FACING_FRONT}.
+     * Returns the zoom ratio of every zoom level in hundredths, starting with 100 for no zoom, or
+     * null if the camera is not open or cannot zoom.
      */
-    public int getCameraFacing() {
-        return mFacing;
+    @Nullable
+    public List<Integer> getZoomRatios() {
+        return mZoomRatios;
     }
 
-    public int doZoom(float scale) {
-        synchronized (mCameraLock) {
-            if (mCamera == null) {
-                return 0;
-            }
-            int currentZoom = 0;
-            int maxZoom;
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (!parameters.isZoomSupported()) {
-                return currentZoom;
-            }
-            maxZoom = parameters.getMaxZoom();
+    /**
+     * Adds a controller notified after every decoded frame.  Controllers only see frames while a
+     * processor is set, and may be added or removed while the camera source is running.
+     */
+    public void addDetectionController(DetectionController controller) {
+        synchronized (mChangeLock) {
+            DetectionController[] controllers = Arrays.copyOf(mDetectionControllers,
+                    mDetectionControllers.length + 1);
+            controllers[controllers.length - 1] = controller;
+            mDetectionControllers = controllers;
+        }
+    }
 
-            currentZoom = parameters.getZoom() + 1;
-            float newZoom;
-            if (scale > 1) {
-                newZoom = currentZoom + scale * (maxZoom / 10);
-            } else {
-                newZoom = currentZoom * scale;
-            }
-            currentZoom = Math.round(newZoom) - 1;
-            if (currentZoom < 0) {
-                currentZoom = 0;
-            } else if (currentZoom > maxZoom) {
-                currentZoom = maxZoom;
+    public void removeDetectionController(DetectionController controller) {
+        synchronized (mChangeLock) {
+            List<DetectionController> controllers =
+                    new ArrayList<>(Arrays.asList(mDetectionControllers));
+            if (controllers.remove(controller)) {
+                mDetectionControllers = controllers.toArray(new DetectionController[0]);
             }
-            parameters.setZoom(currentZoom);
-            mCamera.setParameters(parameters);
-            return currentZoom;
         }
     }
 
@@ -438,15 +1383,17 @@ public class CameraSource {
      * @param jpeg    the callback for JPEG image data, or null
      */
     public void takePicture(ShutterCallback shutter, PictureCallback jpeg) {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                PictureStartCallback startCallback = new PictureStartCallback();
-                startCallback.mDelegate = shutter;
-                PictureDoneCallback doneCallback = new PictureDoneCallback();
-                doneCallback.mDelegate = jpeg;
-                mCamera.takePicture(startCallback, null, null, doneCallback);
+        mControlHandler.post(() -> {
+            synchronized (mCameraLock) {
+                if (mCamera != null) {
+                    PictureStartCallback startCallback = new PictureStartCallback();
+                    startCallback.mDelegate = shutter;
+                    PictureDoneCallback doneCallback = new PictureDoneCallback();
+                    doneCallback.mDelegate = jpeg;
+                    mCamera.takePicture(startCallback, null, null, doneCallback);
+                }
             }
-        }
+        });
     }
 
     /**
@@ -473,23 +1420,31 @@ public class CameraSource {
      * Sets the focus mode.
      *
      * @param mode the focus mode
-     * @return {@code true} if the focus mode is set, {@code false} otherwise
+     * @return {@code true} if the focus mode is supported and will be set, {@code false} otherwise
      * @see #getFocusMode()
      */
     public boolean setFocusMode(@FocusMode String mode) {
-        synchronized (mCameraLock) {
-            if (mCamera != null && mode != null) {
-                Camera.Parameters parameters = mCamera.getParameters();
-                if (parameters.getSupportedFocusModes().contains(mode)) {
-                    parameters.setFocusMode(mode);
-                    mCamera.setParameters(parameters);
-                    mFocusMode = mode;
-                    return true;
-                }
-            }
+        return setFocusMode(mode, null);
+    }
 
+    /**
+     * Sets the focus mode on the control thread.
+     *
+     * @param mode     the focus mode
+     * @param callback notified once the focus mode has been applied, or null
+     * @return {@code true} if the focus mode is supported and will be set, {@code false} otherwise
+     */
+    public boolean setFocusMode(@FocusMode String mode, @Nullable ControlCallback callback) {
+        List<String> supported = mSupportedFocusModes;
+        if (mode == null || supported == null || !supported.contains(mode)) {
+            complete(callback, false);
             return false;
         }
+        changeParameters("focusMode", (camera, parameters) -> {
+            parameters.setFocusMode(mode);
+            return true;
+        }, callback);
+        return true;
     }
 
     /**
@@ -513,23 +1468,31 @@ public class CameraSource {
      * Sets the flash mode.
      *
      * @param mode flash mode.
-     * @return {@code true} if the flash mode is set, {@code false} otherwise
+     * @return {@code true} if the flash mode is supported and will be set, {@code false} otherwise
      * @see #getFlashMode()
      */
     public boolean setFlashMode(@FlashMode String mode) {
-        synchronized (mCameraLock) {
-            if (mCamera != null && mode != null) {
-                Camera.Parameters parameters = mCamera.getParameters();
-                if (parameters.getSupportedFlashModes().contains(mode)) {
-                    parameters.setFlashMode(mode);
-                    mCamera.setParameters(parameters);
-                    mFlashMode = mode;
-                    return true;
-                }
-            }
+        return setFlashMode(mode, null);
+    }
 
+    /**
+     * Sets the flash mode on the control thread.
+     *
+     * @param mode     flash mode.
+     * @param callback notified once the flash mode has been applied, or null
+     * @return {@code true} if the flash mode is supported and will be set, {@code false} otherwise
+     */
+    public boolean setFlashMode(@FlashMode String mode, @Nullable ControlCallback callback) {
+        List<String> supported = mSupportedFlashModes;
+        if (mode == null || supported == null || !supported.contains(mode)) {
+            complete(callback, false);
             return false;
         }
+        changeParameters("flashMode", (camera, parameters) -> {
+            parameters.setFlashMode(mode);
+            return true;
+        }, callback);
+        return true;
     }
 
     /**
@@ -546,21 +1509,33 @@ public class CameraSource {
      * <p>If the current flash mode is not
      * {@link Camera.Parameters#FLASH_MODE_OFF}, flash may be
      * fired during auto-focus, depending on the driver and camera hardware.<p>
+     * <p/>
+     * Focusing starts on the control thread, after any parameter changes requested before.
      *
      * @param cb the callback to run
      * @see #cancelAutoFocus()
      */
     public void autoFocus(@Nullable AutoFocusCallback cb) {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                CameraAutoFocusCallback autoFocusCallback = null;
-                if (cb != null) {
-                    autoFocusCallback = new CameraAutoFocusCallback();
-                    autoFocusCallback.mDelegate = cb;
+        mControlHandler.post(() -> {
+            synchronized (mCameraLock) {
+                if (mCamera != null) {
+                    CameraAutoFocusCallback autoFocusCallback = null;
+                    if (cb != null) {
+                        autoFocusCallback = new CameraAutoFocusCallback();
+                        autoFocusCallback.mDelegate = cb;
+                    }
+                    try {
+                        mCamera.autoFocus(autoFocusCallback);
+                    } catch (RuntimeException e) {
+                        // e.g., the preview stopped meanwhile
+                        Log.w(TAG, "Could not start auto-focus.", e);
+                        if (cb != null) {
+                            cb.onAutoFocus(false);
+                        }
+                    }
                 }
-                mCamera.autoFocus(autoFocusCallback);
             }
-        }
+        });
     }
 
     /**
@@ -572,11 +1547,13 @@ public class CameraSource {
      * @see #autoFocus(AutoFocusCallback)
      */
     public void cancelAutoFocus() {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                mCamera.cancelAutoFocus();
+        mControlHandler.post(() -> {
+            synchronized (mCameraLock) {
+                if (mCamera != null) {
+                    mCamera.cancelAutoFocus();
+                }
             }
-        }
+        });
     }
 
     /**
@@ -591,20 +1568,29 @@ public class CameraSource {
             return false;
         }
 
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
-                if (cb != null) {
-                    autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
-                    autoFocusMoveCallback.mDelegate = cb;
+        mControlHandler.post(() -> {
+            synchronized (mCameraLock) {
+                if (mCamera != null) {
+                    CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
+                    if (cb != null) {
+                        autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
+                        autoFocusMoveCallback.mDelegate = cb;
+                    }
+                    mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
                 }
-                mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
             }
-        }
+        });
 
         return true;
     }
 
+    /**
+     * Returns the counters of the camera control thread.
+     */
+    public ControlStats getControlStats() {
+        return mControlStats;
+    }
+
     //==============================================================================================
     // Private
     //==============================================================================================
@@ -615,6 +1601,139 @@ public class CameraSource {
     private CameraSource() {
     }
 
+    /**
+     * Edits the cached camera parameters on the control thread, with the camera lock held.
+     * Returns false if the change does not apply to the given camera.
+     */
+    private interface ParameterEdit {
+        boolean apply(Camera camera, Camera.Parameters parameters);
+    }
+
+    private static class ParameterChange {
+        final ParameterEdit mEdit;
+        final List<ControlCallback> mCallbacks = new ArrayList<>(1);
+
+        ParameterChange(ParameterEdit edit) {
+            mEdit = edit;
+        }
+    }
+
+    /**
+     * Queues a change of the given setting for the control thread.  A change of the same setting
+     * which is still waiting is replaced, and its callbacks get the outcome of the new change.
+     */
+    private void changeParameters(String setting, ParameterEdit edit,
+                                  @Nullable ControlCallback callback) {
+        synchronized (mChangeLock) {
+            boolean post = mPendingChanges.isEmpty();
+            ParameterChange change = new ParameterChange(edit);
+            ParameterChange replaced = mPendingChanges.remove(setting);
+            if (replaced != null) {
+                change.mCallbacks.addAll(replaced.mCallbacks);
+                mControlStats.mCoalescedChanges.incrementAndGet();
+            }
+            if (callback != null) {
+                change.mCallbacks.add(callback);
+            }
+            mPendingChanges.put(setting, change);
+            if (post) {
+                mControlHandler.post(this::applyPendingChanges);
+            }
+        }
+    }
+
+    /**
+     * Applies all waiting parameter changes with one setParameters call.  Runs on the control
+     * thread.
+     */
+    private void applyPendingChanges() {
+        List<ParameterChange> changes;
+        synchronized (mChangeLock) {
+            changes = new ArrayList<>(mPendingChanges.values());
+            mPendingChanges.clear();
+        }
+
+        boolean[] results = new boolean[changes.size()];
+        synchronized (mCameraLock) {
+            Camera camera = mCamera;
+            Camera.Parameters parameters = mParameters;
+            if (camera != null && parameters != null) {
+                boolean changed = false;
+                for (int i = 0; i < results.length; ++i) {
+                    results[i] = changes.get(i).mEdit.apply(camera, parameters);
+                    changed |= results[i];
+                }
+                if (changed) {
+                    try {
+                        camera.setParameters(parameters);
+                        mControlStats.mParameterUpdates.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Could not change the camera parameters.", e);
+                        Arrays.fill(results, false);
+                        mParameters = camera.getParameters();
+                    }
+                    updateParameterState();
+                }
+            }
+        }
+
+        for (int i = 0; i < results.length; ++i) {
+            for (ControlCallback callback : changes.get(i).mCallbacks) {
+                complete(callback, results[i]);
+            }
+        }
+    }
+
+    /**
+     * Caches the parameters of a newly opened camera, or clears them for null.  Must be called
+     * with the camera lock held.
+     */
+    private void cacheParameters(@Nullable Camera.Parameters parameters) {
+        mParameters = parameters;
+        if (parameters == null) {
+            mMaxZoom = -1;
+            mZoomRatios = null;
+            mSupportedFocusModes = null;
+            mSupportedFlashModes = null;
+            mMinExposure = 0;
+            mMaxExposure = 0;
+            mExposureLockSupported = false;
+            mWhiteBalanceLockSupported = false;
+            return;
+        }
+        mMaxZoom = parameters.isZoomSupported() ? parameters.getMaxZoom() : -1;
+        mZoomRatios = parameters.isZoomSupported() ? parameters.getZoomRatios() : null;
+        mSupportedFocusModes = parameters.getSupportedFocusModes();
+        mSupportedFlashModes = parameters.getSupportedFlashModes();
+        mMinExposure = parameters.getMinExposureCompensation();
+        mMaxExposure = parameters.getMaxExposureCompensation();
+        mExposureStep = parameters.getExposureCompensationStep();
+        mExposureLockSupported = parameters.isAutoExposureLockSupported();
+        mWhiteBalanceLockSupported = parameters.isAutoWhiteBalanceLockSupported();
+        synchronized (mChangeLock) {
+            mZoomTarget = parameters.isZoomSupported() ? parameters.getZoom() : 0;
+            mExposureTarget = parameters.getExposureCompensation();
+        }
+        updateParameterState();
+    }
+
+    /**
+     * Reads the settings reported by the getters back from the cached parameters.
+     */
+    private void updateParameterState() {
+        mFocusMode = mParameters.getFocusMode();
+        mFlashMode = mParameters.getFlashMode();
+        int[] range = new int[2];
+        mParameters.getPreviewFpsRange(range);
+        mPreviewFpsRange = range;
+    }
+
+    private void complete(@Nullable ControlCallback callback, boolean success) {
+        if (callback != null) {
+            mMainHandler.post(() -> callback.onComplete(success));
+        }
+    }
+
     /**
      * Wraps the camera1 shutter callback so that the deprecated API isn't exposed.
      */
@@ -681,10 +1800,12 @@ public class CameraSource {
     /**
      * Opens the camera and applies the user settings.
      *
+     * @param frameCount the minimum number of preview buffers to queue
+     * @param listener   the listener receiving the preview frames
      * @throws RuntimeException if the method fails
      */
     @SuppressLint("InlinedApi")
-    private Camera createCamera() {
+    private Camera createCamera(int frameCount, FrameSource.FrameListener listener) {
         int requestedCameraId = getIdForRequestedCamera(mFacing);
         if (requestedCameraId == -1) {
             throw new RuntimeException("Could not find requested camera.");
@@ -712,6 +1833,8 @@ public class CameraSource {
         parameters.setPreviewFpsRange(
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        mSupportedFpsRanges = parameters.getSupportedPreviewFpsRange();
+        mPreviewFpsRange = previewFpsRange;
         parameters.setPreviewFormat(ImageFormat.NV21);
 
         setRotation(camera, parameters, requestedCameraId);
@@ -727,6 +1850,14 @@ public class CameraSource {
         // setting mFocusMode to the one set in the params
         mFocusMode = parameters.getFocusMode();
 
+        boolean focusRegionSet;
+        synchronized (mChangeLock) {
+            focusRegionSet = mFocusRegionSet;
+        }
+        if (focusRegionSet) {
+            applyFocusRegion(parameters);
+        }
+
         if (mFlashMode != null) {
             if (parameters.getSupportedFlashModes() != null) {
                 if (parameters.getSupportedFlashModes().contains(
@@ -740,17 +1871,11 @@ public class CameraSource {
         mFlashMode = parameters.getFlashMode();
 
         camera.setParameters(parameters);
+        cacheParameters(camera.getParameters());
 
-        // Four frame buffers are needed for working with the camera:
-        //
-        //   one for the frame that is currently being executed upon in doing detection
-        //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
-        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback(listener));
+        mBufferPool.allocate(mPreviewSize, Math.max(mBufferPool.getDepth(), frameCount));
+        mBufferPool.attach(camera);
 
         return camera;
     }
@@ -788,23 +1913,16 @@ public class CameraSource {
     private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
         List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
 
-        // The method for selecting the best size is to minimize the sum of the differences between
-        // the desired values and the actual values for width and height.  This is certainly not the
-        // only way to select the best size, but it provides a decent tradeoff between using the
-        // closest aspect ratio vs. using the closest pixel area.
-        SizePair selectedPair = null;
-        int minDiff = Integer.MAX_VALUE;
-        for (SizePair sizePair : validPreviewSizes) {
-            Size size = sizePair.previewSize();
-            int diff = Math.abs(size.getWidth() - desiredWidth) +
-                    Math.abs(size.getHeight() - desiredHeight);
-            if (diff < minDiff) {
-                selectedPair = sizePair;
-                minDiff = diff;
-            }
+        int[] widths = new int[validPreviewSizes.size()];
+        int[] heights = new int[validPreviewSizes.size()];
+        for (int i = 0; i < widths.length; ++i) {
+            Size size = validPreviewSizes.get(i).previewSize();
+            widths[i] = size.getWidth();
+            heights[i] = size.getHeight();
         }
 
-        return selectedPair;
+        int selected = CameraSelection.selectSize(widths, heights, desiredWidth, desiredHeight);
+        return selected < 0 ? null : validPreviewSizes.get(selected);
     }
 
     /**
@@ -841,16 +1959,19 @@ public class CameraSource {
                 parameters.getSupportedPreviewSizes();
         List<Camera.Size> supportedPictureSizes =
                 parameters.getSupportedPictureSizes();
+        int[] pictureWidths = new int[supportedPictureSizes.size()];
+        int[] pictureHeights = new int[supportedPictureSizes.size()];
+        for (int i = 0; i < pictureWidths.length; ++i) {
+            pictureWidths[i] = supportedPictureSizes.get(i).width;
+            pictureHeights[i] = supportedPictureSizes.get(i).height;
+        }
+
         List<SizePair> validPreviewSizes = new ArrayList<>();
         for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
-
-            for (android.hardware.Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
-                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
-                    validPreviewSizes.add(new SizePair(previewSize, pictureSize));
-                    break;
-                }
+            int picture = CameraSelection.findPictureSize(previewSize.width, previewSize.height,
+                    pictureWidths, pictureHeights, ASPECT_RATIO_TOLERANCE);
+            if (picture >= 0) {
+                validPreviewSizes.add(new SizePair(previewSize, supportedPictureSizes.get(picture)));
             }
         }
 
@@ -866,24 +1987,24 @@ public class CameraSource {
     private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
 
-        int[] selectedFpsRange = null;
-        int minDiff = Integer.MAX_VALUE;
         List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
-        for (int[] range : previewFpsRangeList) {
-            int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-            int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
-            int diff = Math.abs(deltaMin) + Math.abs(deltaMax);
-            if (diff < minDiff) {
-                selectedFpsRange = range;
-                minDiff = diff;
-            }
+        int[] minimums = new int[previewFpsRangeList.size()];
+        int[] maximums = new int[previewFpsRangeList.size()];
+        for (int i = 0; i < minimums.length; ++i) {
+            minimums[i] = previewFpsRangeList.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            maximums[i] = previewFpsRangeList.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
         }
-        return selectedFpsRange;
+
+        int selected = CameraSelection.selectFpsRange(minimums, maximums, desiredPreviewFpsScaled);
+        return selected < 0 ? null : previewFpsRangeList.get(selected);
     }
 
-    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+    /**
+     * Returns the rotation of the default display, in degrees.
+     */
+    static int getDisplayRotationDegrees(Context context) {
         WindowManager windowManager =
-                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+                (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         int degrees = 0;
         int rotation = windowManager.getDefaultDisplay().getRotation();
         switch (rotation) {
@@ -902,19 +2023,18 @@ public class CameraSource {
             default:
 
         }
+        return degrees;
+    }
+
+    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+        int degrees = getDisplayRotationDegrees(mContext);
 
         CameraInfo cameraInfo = new CameraInfo();
         Camera.getCameraInfo(cameraId, cameraInfo);
 
-        int angle;
-        int displayAngle;
-        if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            angle = (cameraInfo.orientation + degrees) % 360;
-            displayAngle = (360 - angle) % 360; // compensate for it being mirrored
-        } else {  // back-facing
-            angle = (cameraInfo.orientation - degrees + 360) % 360;
-            displayAngle = angle;
-        }
+        boolean frontFacing = cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        int angle = CameraSelection.getFrameAngle(cameraInfo.orientation, degrees, frontFacing);
+        int displayAngle = CameraSelection.getDisplayOrientation(angle, frontFacing);
 
         mRotation = angle / 90;
 
@@ -922,117 +2042,379 @@ public class CameraSource {
         parameters.setRotation(angle);
     }
 
-    private byte[] createPreviewBuffer(Size previewSize) {
-        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
-        long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    private class CameraPreviewCallback implements Camera.PreviewCallback {
+        private final FrameSource.FrameListener mListener;
 
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+        CameraPreviewCallback(FrameSource.FrameListener listener) {
+            mListener = listener;
         }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            PreviewBufferPool.Buffer frame = mBufferPool.acquire(data);
+            if (frame != null) {
+                mListener.onFrame(frame);
+            }
+            if (mFrameRateGovernor != null) {
+                int[] range = mFrameRateGovernor.selectRange(mSupportedFpsRanges, mPreviewFpsRange,
+                        SystemClock.elapsedRealtime());
+                if (range != null) {
+                    setPreviewFpsRange(camera, range);
+                }
+            }
+        }
     }
 
-    private class CameraPreviewCallback implements Camera.PreviewCallback {
+    /**
+     * Switches the preview fps range of the running camera, as chosen by the frame rate governor.
+     */
+    private void setPreviewFpsRange(final Camera camera, final int[] range) {
+        changeParameters("previewFpsRange", (current, parameters) -> {
+            if (current != camera) {
+                return false;
+            }
+            parameters.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            return true;
+        }, null);
+    }
+
+    /**
+     * Holds the most recent camera frame until one of the detection workers is free to take it.
+     * If a newer frame arrives first, the pending one is dropped and its buffer handed back to the
+     * camera.
+     * <p/>
+     * The pending frame lives in a single atomic slot, so neither the camera callback nor the
+     * workers ever block on a monitor: the callback swaps its frame in, a worker swaps it out, and
+     * idle workers park until the callback unparks one of them.
+     */
+    private class FrameHandoff implements FrameSource.FrameListener {
+        private long mStartTimeMillis = SystemClock.elapsedRealtime();
+
+        private volatile boolean mActive = true;
+        private final AtomicReference<SourceFrame> mPendingFrame = new AtomicReference<>();
+        private final ConcurrentLinkedQueue<Thread> mIdleWorkers = new ConcurrentLinkedQueue<>();
+
+        // Ids are assigned when a worker takes a frame, so that the ids seen by the sequencer
+        // have no gaps.
+        private final AtomicInteger mNextFrameId = new AtomicInteger(1);
+
+        void setActive(boolean active) {
+            mActive = active;
+            if (!active) {
+                discardPendingFrame();
+                Thread worker;
+                while ((worker = mIdleWorkers.poll()) != null) {
+                    LockSupport.unpark(worker);
+                }
+            }
+        }
+
+        int nextFrameId() {
+            return mNextFrameId.get();
+        }
+
+        void discardPendingFrame() {
+            SourceFrame pending = mPendingFrame.getAndSet(null);
+            if (pending != null) {
+                pending.release();
+            }
+        }
+
         @Override
-        public void onPreviewFrame(byte[] data, Camera camera) {
-            mFrameProcessor.setNextFrame(data, camera);
+        public void onFrame(SourceFrame frame) {
+            if (!mActive || mDetectionPaused) {
+                frame.release();
+                return;
+            }
+
+            frame.mReceivedNanos = System.nanoTime();
+            frame.mTimestampMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+            mStats.mFramesReceived.incrementAndGet();
+            SourceFrame dropped = mPendingFrame.getAndSet(frame);
+            if (dropped != null) {
+                mStats.mFramesDropped.incrementAndGet();
+                dropped.release();
+            }
+
+            Thread worker = mIdleWorkers.poll();
+            if (worker != null) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        /**
+         * Blocks until a frame is pending and hands it to the given worker, or returns false once
+         * the handoff has been deactivated or the calling thread is interrupted.
+         */
+        boolean takeFrame(FrameProcessingRunnable worker) {
+            Thread current = Thread.currentThread();
+            while (mActive && !current.isInterrupted()) {
+                SourceFrame frame = mPendingFrame.getAndSet(null);
+                if (frame != null && mFrameRateGovernor != null
+                        && mFrameRateGovernor.dropIfStale(System.nanoTime() - frame.mReceivedNanos)) {
+                    frame.release();
+                    continue;
+                }
+                if (frame != null) {
+                    worker.mFrame = frame;
+                    worker.mFrameId = mNextFrameId.getAndIncrement();
+                    return true;
+                }
+
+                // Register as idle before checking the slot again, so that a frame published in
+                // between is either seen here or followed by an unpark of this thread.
+                mIdleWorkers.add(current);
+                if (mActive && mPendingFrame.get() == null) {
+                    LockSupport.park(this);
+                }
+                mIdleWorkers.remove(current);
+            }
+            return false;
         }
     }
 
+    /**
+     * Runs detection on the frames taken from the handoff.  There is one instance per detection
+     * worker, each with its own detector.
+     */
     private class FrameProcessingRunnable implements Runnable {
         private Detector<?> mDetector;
-        private long mStartTimeMillis = SystemClock.elapsedRealtime();
+        // detector to switch to before the next frame, set by a reconfiguration
+        private final AtomicReference<Detector<?>> mReplacement = new AtomicReference<>();
+        private SourceFrame mFrame;
+        private int mFrameId;
 
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
+        // Reusable buffer holding the scan window region of the current frame.
+        private byte[] mCropArray;
+        private ByteBuffer mCropBuffer;
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
-        private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
+        // The NV21 image the current frame was built from, i.e., either the source frame or
+        // the scan window region.
+        private ByteBuffer mSourceBuffer;
+        private int mSourceWidth;
+        private int mSourceHeight;
+
+        // Reusable buffer holding the downsampled versions of the current frame.
+        private byte[] mScaledArray;
+        private ByteBuffer mScaledBuffer;
 
         FrameProcessingRunnable(Detector<?> detector) {
             mDetector = detector;
         }
 
+        /**
+         * Replaces the detector, right away if the worker is not running, or else before it
+         * takes on the next frame.  Must be called with the camera lock held.
+         */
+        void replaceDetector(Detector<?> detector, boolean running) {
+            retire(mReplacement.getAndSet(detector));
+            if (!running) {
+                applyReplacedDetector();
+            }
+        }
+
+        /**
+         * Switches to the replacement detector, if there is one.  Called on the worker thread, or
+         * with the camera lock held while the worker is not running.
+         */
+        void applyReplacedDetector() {
+            Detector<?> replacement = mReplacement.getAndSet(null);
+            if (replacement != null) {
+                retire(mDetector);
+                mDetector = replacement;
+            }
+        }
+
+        private void retire(@Nullable Detector<?> detector) {
+            if (detector == null) {
+                return;
+            }
+            if (mDetectorRecycler != null) {
+                mDetectorRecycler.recycle(detector);
+            } else {
+                detector.release();
+            }
+        }
+
+        void warmUp(Frame frame) {
+            if (mDetector != null && mDetector.isOperational()) {
+                mDetector.detect(frame);
+            }
+        }
+
         @SuppressLint("Assert")
         void release() {
-            assert (mProcessingThread == null || mProcessingThread.getState() == State.TERMINATED);
-            if (mDetector != null) {
-                mDetector.release();
-                mDetector = null;
-            }
+            assert (mProcessingThreads == null);
+            retire(mDetector);
+            mDetector = null;
         }
 
-        void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
+        /**
+         * Builds the frame handed to the detector: either the whole source frame, or only the
+         * region under the scan window copied out of it.  Frames with padded rows or without
+         * chroma, e.g., the luma plane of a camera2 image, are repacked into an NV21 image with
+         * neutral chroma, as the detector expects complete, tightly packed NV21 images.
+         */
+        private Frame buildFrame(@Nullable CropRegion crop) {
+            Frame.Builder builder = new Frame.Builder()
+                    .setId(mFrameId)
+                    .setTimestampMillis(mFrame.mTimestampMillis)
+                    .setRotation(mFrameRotation);
+            if (crop != null && !crop.fits(mFrame)) {
+                crop = null;
+            }
+            if (crop == null && !mFrame.isPackedNv21()) {
+                crop = CropRegion.whole(mFrame.mWidth, mFrame.mHeight);
+            }
+            if (crop == null) {
+                mSourceBuffer = mFrame.mData;
+                mSourceWidth = mFrame.mWidth;
+                mSourceHeight = mFrame.mHeight;
+                return builder.setImageData(mSourceBuffer, mSourceWidth, mSourceHeight,
+                        ImageFormat.NV21).build();
             }
+
+            int size = crop.mWidth * crop.mHeight * 3 / 2;
+            if (mCropArray == null || mCropArray.length < size) {
+                mCropArray = new byte[size];
+                mCropBuffer = ByteBuffer.wrap(mCropArray);
+            }
+            crop.copy(mFrame, mCropArray);
+            mSourceBuffer = mCropBuffer;
+            mSourceWidth = crop.mWidth;
+            mSourceHeight = crop.mHeight;
+            return builder.setImageData(mCropBuffer, crop.mWidth, crop.mHeight, ImageFormat.NV21)
+                    .build();
         }
 
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
-                }
+        /**
+         * Runs detection on the frame, going through the levels of the decode pyramid if one is
+         * used.  Results are mapped back to full frame coordinates.
+         */
+        private SparseArray<?> detect(Frame frame, @Nullable CropRegion crop) {
+            int offsetX = crop == null ? 0 : crop.mUprightLeft;
+            int offsetY = crop == null ? 0 : crop.mUprightTop;
+
+            DecodePyramid pyramid = mDecodePyramid;
+            if (pyramid != null) {
+                int last = pyramid.getLevelCount() - 1;
+                for (int level = 0; level < last; ++level) {
+                    int factor = pyramid.getFactor(level);
+                    int width = DecodePyramid.scaledSize(mSourceWidth, factor);
+                    int height = DecodePyramid.scaledSize(mSourceHeight, factor);
+                    if (width < 2 || height < 2) {
+                        continue;
+                    }
+
+                    int size = width * height * 3 / 2;
+                    if (mScaledArray == null || mScaledArray.length < size) {
+                        mScaledArray = new byte[size];
+                        mScaledBuffer = ByteBuffer.wrap(mScaledArray);
+                    }
+                    DecodePyramid.downsample(mSourceBuffer, mSourceWidth, mSourceHeight, factor,
+                            mScaledArray);
+                    Frame scaledFrame = new Frame.Builder()
+                            .setImageData(mScaledBuffer, width, height, ImageFormat.NV21)
+                            .setId(mFrameId)
+                            .setTimestampMillis(mFrame.mTimestampMillis)
+                            .setRotation(mFrameRotation)
+                            .build();
 
-                if (!mBytesToByteBuffer.containsKey(data)) {
-                    return;
+                    SparseArray<?> detections = mDetector.detect(scaledFrame);
+                    boolean hit = detections.size() > 0;
+                    pyramid.record(level, hit);
+                    if (hit) {
+                        if (mDetectionMapper != null) {
+                            mDetectionMapper.map(detections, factor, offsetX, offsetY);
+                        }
+                        return detections;
+                    }
                 }
+            }
 
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+            SparseArray<?> detections = mDetector.detect(frame);
+            if (pyramid != null) {
+                pyramid.record(pyramid.getLevelCount() - 1, detections.size() > 0);
+            }
+            if (crop != null && mDetectionMapper != null && detections.size() > 0) {
+                mDetectionMapper.map(detections, 1.0f, offsetX, offsetY);
+            }
+            return detections;
+        }
 
-                mLock.notifyAll();
+        private void notifyControllers(SparseArray<?> detections) {
+            DetectionController[] controllers = mDetectionControllers;
+            if (controllers.length == 0) {
+                return;
+            }
+            boolean sideways = mFrameRotation == Frame.ROTATION_90
+                    || mFrameRotation == Frame.ROTATION_270;
+            int width = sideways ? mFrame.mHeight : mFrame.mWidth;
+            int height = sideways ? mFrame.mWidth : mFrame.mHeight;
+            for (DetectionController controller : controllers) {
+                controller.onFrameDetected(CameraSource.this, detections, width, height);
             }
         }
 
         @Override
         public void run() {
             Frame outputFrame;
-            ByteBuffer data;
-
-            while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            return;
-                        }
-                    }
 
-                    if (!mActive) {
-                        return;
+            while (mFrameHandoff.takeFrame(this)) {
+                applyReplacedDetector();
+                long receivedNanos = mFrame.mReceivedNanos;
+                long detectStart = System.nanoTime();
+                long detectEnd = detectStart;
+                mStats.mHandoff.record(detectStart - receivedNanos);
+
+                CropRegion crop = mCropRegion;
+                if ((mLightingController != null
+                        && !mLightingController.accept(mFrame, crop, CameraSource.this))
+                        || (mSharpnessGate != null && !mSharpnessGate.accept(mFrame, crop))) {
+                    // too dark or blurry to decode; the frame id still has to pass the sequencer
+                    mFrame.release();
+                    mFrame = null;
+                    if (mSequencer != null) {
+                        mSequencer.complete(mFrameId, null, null, mDetector.isOperational());
                     }
-
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
+                    continue;
                 }
 
-
+                SparseArray<?> detections = null;
+                outputFrame = null;
                 try {
-                    mDetector.receiveFrame(outputFrame);
+                    outputFrame = buildFrame(crop);
+                    if (mSequencer != null) {
+                        detections = detect(outputFrame, crop);
+                    } else {
+                        mDetector.receiveFrame(outputFrame);
+                    }
+                    detectEnd = System.nanoTime();
+                    mStats.mDetect.record(detectEnd - detectStart);
+                    if (mFrameRateGovernor != null) {
+                        mFrameRateGovernor.recordDetect(detectEnd - detectStart);
+                    }
+                    if (mSequencer != null && mDetectionObserver != null) {
+                        mDetectionObserver.onFrameDetected(detections, detectEnd - detectStart);
+                    }
+                    if (mSequencer != null) {
+                        notifyControllers(detections);
+                    }
                 } catch (Throwable t) {
+                    detectEnd = System.nanoTime();
+                    mStats.mDetectorErrors.incrementAndGet();
+                    Log.e(TAG, "Exception thrown from receiver.", t);
                 } finally {
-                    mCamera.addCallbackBuffer(data.array());
+                    mFrame.release();
+                    mFrame = null;
+                    if (mSequencer != null) {
+                        mSequencer.complete(mFrameId, outputFrame == null ? null
+                                : outputFrame.getMetadata(), detections, mDetector.isOperational());
+                    }
+                    long deliverEnd = System.nanoTime();
+                    mStats.mDeliver.record(deliverEnd - detectEnd);
+                    mStats.mTotal.record(deliverEnd - receivedNanos);
                 }
             }
         }
@@ -73,6 +73,22 @@ public class CameraSourcePreview extends ViewGroup {
         start(cameraSource);
     }
 
+    /**
+     * Applies the given changes to the camera source in place, and updates the overlay and the
+     * preview layout for the new camera.
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void reconfigure(CameraSource.Reconfiguration change) throws IOException {
+        if (mCameraSource == null) {
+            return;
+        }
+        mCameraSource.reconfigure(change);
+        if (!mStartRequested) {
+            updateOverlay();
+        }
+        requestLayout();
+    }
+
     public void stop() {
         if (mCameraSource != null) {
             mCameraSource.stop();
@@ -90,23 +106,32 @@ public class CameraSourcePreview extends ViewGroup {
     private void startIfReady() throws IOException, SecurityException {
         if (mStartRequested && mSurfaceAvailable) {
             mCameraSource.start(mSurfaceView.getHolder());
-            if (mOverlay != null) {
-                Size size = mCameraSource.getPreviewSize();
-                int min = Math.min(size.getWidth(), size.getHeight());
-                int max = Math.max(size.getWidth(), size.getHeight());
-                if (isPortraitMode()) {
-                    // Swap width and height sizes when in portrait, since it will be rotated by
-                    // 90 degrees
-                    mOverlay.setCameraInfo(min, max, mCameraSource.getCameraFacing());
-                } else {
-                    mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
-                }
-                mOverlay.clear();
-            }
+            updateOverlay();
             mStartRequested = false;
         }
     }
 
+    private void updateOverlay() {
+        if (mOverlay == null) {
+            return;
+        }
+        Size size = mCameraSource.getPreviewSize();
+        if (size == null) {
+            return;
+        }
+        int min = Math.min(size.getWidth(), size.getHeight());
+        int max = Math.max(size.getWidth(), size.getHeight());
+        if (isPortraitMode()) {
+            // Swap width and height sizes when in portrait, since it will be rotated by
+            // 90 degrees
+            mOverlay.setCameraInfo(min, max, mCameraSource.getCameraFacing());
+        } else {
+            mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
+        }
+        mOverlay.clear();
+        mCameraSource.setScanWindow(mOverlay.getScanWindow());
+    }
+
     private class SurfaceCallback implements SurfaceHolder.Callback {
         @Override
         public void surfaceCreated(SurfaceHolder surface) {
@@ -0,0 +1,36 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the camera control thread of a camera source.  Kept apart from the camera source, so
+ * that they can be reported without holding on to the camera source.
+ */
+public class ControlStats {
+    final AtomicLong mParameterUpdates = new AtomicLong();
+    final AtomicLong mCoalescedChanges = new AtomicLong();
+
+    /**
+     * Returns the number of setParameters calls made by the control thread.
+     */
+    public long getParameterUpdates() {
+        return mParameterUpdates.get();
+    }
+
+    /**
+     * Returns the number of parameter changes which were replaced by a newer change of the same
+     * setting before they were applied.
+     */
+    public long getCoalescedChanges() {
+        return mCoalescedChanges.get();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("parameterUpdates", getParameterUpdates());
+        map.put("coalescedChanges", getCoalescedChanges());
+        return map;
+    }
+}
@@ -0,0 +1,155 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Region of an NV21 camera frame which lies under the scan window, in raw (sensor oriented)
+ * frame coordinates.  Also keeps the position of the region within the upright frame, which is
+ * the coordinate system the detector reports results in.
+ */
+class CropRegion {
+    final int mLeft;
+    final int mTop;
+    final int mWidth;
+    final int mHeight;
+    final int mUprightLeft;
+    final int mUprightTop;
+
+    private CropRegion(int left, int top, int width, int height, int uprightLeft, int uprightTop) {
+        mLeft = left;
+        mTop = top;
+        mWidth = width;
+        mHeight = height;
+        mUprightLeft = uprightLeft;
+        mUprightTop = uprightTop;
+    }
+
+    /**
+     * Maps a window given as fractions of the upright frame onto a frame of the given raw size
+     * and rotation (one of the Frame.ROTATION_* values, i.e., quarter turns clockwise needed to
+     * make the raw frame upright).  Returns null if the window covers (nearly) the whole frame,
+     * or is empty.
+     */
+    static CropRegion create(int frameWidth, int frameHeight, int rotation,
+                             float left, float top, float right, float bottom) {
+        left = clamp(left);
+        top = clamp(top);
+        right = clamp(right);
+        bottom = clamp(bottom);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+
+        // Undo the rotation, mapping the upright window onto the raw frame.
+        RectF raw = toRaw(rotation, left, top, right, bottom);
+
+        // NV21 subsamples the chroma in 2x2 blocks, so the region has to start and end on even
+        // coordinates.
+        int x0 = evenFloor(raw.left * frameWidth);
+        int y0 = evenFloor(raw.top * frameHeight);
+        int x1 = Math.min(frameWidth & ~1, evenCeil(raw.right * frameWidth));
+        int y1 = Math.min(frameHeight & ~1, evenCeil(raw.bottom * frameHeight));
+        if (x1 - x0 < 2 || y1 - y0 < 2) {
+            return null;
+        }
+        if (x1 - x0 >= frameWidth - 1 && y1 - y0 >= frameHeight - 1) {
+            return null;
+        }
+
+        // Position of the region within the upright frame.
+        int uprightLeft, uprightTop;
+        switch (rotation) {
+            case 1:
+                uprightLeft = frameHeight - y1;
+                uprightTop = x0;
+                break;
+            case 2:
+                uprightLeft = frameWidth - x1;
+                uprightTop = frameHeight - y1;
+                break;
+            case 3:
+                uprightLeft = y0;
+                uprightTop = frameWidth - x1;
+                break;
+            default:
+                uprightLeft = x0;
+                uprightTop = y0;
+        }
+        return new CropRegion(x0, y0, x1 - x0, y1 - y0, uprightLeft, uprightTop);
+    }
+
+    /**
+     * Undoes the rotation of a window given as fractions of the upright frame, returning the
+     * same window as fractions of the raw frame.
+     */
+    static RectF toRaw(int rotation, float left, float top, float right, float bottom) {
+        switch (rotation) {
+            case 1:
+                return new RectF(top, 1.0f - right, bottom, 1.0f - left);
+            case 2:
+                return new RectF(1.0f - right, 1.0f - bottom, 1.0f - left, 1.0f - top);
+            case 3:
+                return new RectF(1.0f - bottom, left, 1.0f - top, right);
+            default:
+                return new RectF(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Returns a region covering the whole of a frame of the given size, used to repack frames
+     * with padded rows.
+     */
+    static CropRegion whole(int frameWidth, int frameHeight) {
+        return new CropRegion(0, 0, frameWidth & ~1, frameHeight & ~1, 0, 0);
+    }
+
+    /**
+     * Returns true if the region lies within the given frame.  False only while the region has
+     * not yet been updated for a new frame size.
+     */
+    boolean fits(SourceFrame frame) {
+        return mLeft + mWidth <= frame.mWidth && mTop + mHeight <= frame.mHeight;
+    }
+
+    /**
+     * Copies the region out of a frame into a tightly packed NV21 image of the region's size.
+     * Frames without chroma get neutral chroma, as the detector only looks at luma.
+     */
+    void copy(SourceFrame frame, byte[] dst) {
+        ByteBuffer src = frame.mData;
+        int dstOffset = 0;
+        for (int row = mTop; row < mTop + mHeight; ++row) {
+            src.position(row * frame.mRowStride + mLeft);
+            src.get(dst, dstOffset, mWidth);
+            dstOffset += mWidth;
+        }
+
+        if (frame.mHasChroma) {
+            // interleaved V/U plane, one row per two luma rows
+            int chromaStart = frame.mRowStride * frame.mHeight;
+            for (int row = mTop / 2; row < (mTop + mHeight) / 2; ++row) {
+                src.position(chromaStart + row * frame.mRowStride + mLeft);
+                src.get(dst, dstOffset, mWidth);
+                dstOffset += mWidth;
+            }
+        } else {
+            Arrays.fill(dst, dstOffset, dstOffset + mWidth * mHeight / 2, (byte) 128);
+        }
+        src.position(0);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0.0f, Math.min(1.0f, value));
+    }
+
+    private static int evenFloor(float value) {
+        return ((int) Math.floor(value)) & ~1;
+    }
+
+    private static int evenCeil(float value) {
+        return (((int) Math.ceil(value)) + 1) & ~1;
+    }
+}
@@ -0,0 +1,115 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Multi-scale decode stage.  Each frame is first decoded from box-downsampled copies of its luma
+ * plane, coarsest first, and only decoded at full resolution when none of the cheaper passes
+ * finds anything.  Large barcodes are read from a fraction of the pixels, while small or distant
+ * ones still get the full resolution pass.
+ * <p/>
+ * Keeps per-level counters of attempts and hits, so that the payoff of every level can be
+ * checked.  Level {@code i} is the {@code i}-th downsampling factor; the last level is the full
+ * resolution pass.
+ */
+public class DecodePyramid {
+    private final int[] mFactors;
+    private final AtomicLongArray mAttempts;
+    private final AtomicLongArray mHits;
+
+    /**
+     * Creates a pyramid trying the given downsampling factors, in order, before the full
+     * resolution pass.  Factors must be 2 or larger, e.g., {@code {4, 2}}.
+     */
+    public DecodePyramid(int... factors) {
+        for (int factor : factors) {
+            if (factor < 2) {
+                throw new IllegalArgumentException("Invalid downsampling factor: " + factor);
+            }
+        }
+        mFactors = factors.clone();
+        mAttempts = new AtomicLongArray(mFactors.length + 1);
+        mHits = new AtomicLongArray(mFactors.length + 1);
+    }
+
+    /**
+     * Returns the number of levels, including the full resolution one.
+     */
+    public int getLevelCount() {
+        return mFactors.length + 1;
+    }
+
+    /**
+     * Returns the downsampling factor of a level; 1 for the full resolution level.
+     */
+    public int getFactor(int level) {
+        return level < mFactors.length ? mFactors[level] : 1;
+    }
+
+    /**
+     * Returns how many frames were decoded at the given level.
+     */
+    public long getAttempts(int level) {
+        return mAttempts.get(level);
+    }
+
+    /**
+     * Returns how many frames produced at least one result at the given level.
+     */
+    public long getHits(int level) {
+        return mHits.get(level);
+    }
+
+    /**
+     * Returns the fraction of decodes at the given level which produced results.
+     */
+    public float getHitRate(int level) {
+        long attempts = mAttempts.get(level);
+        return attempts == 0 ? 0.0f : (float) mHits.get(level) / attempts;
+    }
+
+    void record(int level, boolean hit) {
+        mAttempts.incrementAndGet(level);
+        if (hit) {
+            mHits.incrementAndGet(level);
+        }
+    }
+
+    /**
+     * Returns the width or height of an image of the given size after downsampling.  Kept even,
+     * as required by NV21.
+     */
+    static int scaledSize(int size, int factor) {
+        return (size / factor) & ~1;
+    }
+
+    /**
+     * Box-downsamples the luma plane of an NV21 image by the given factor into {@code dst}, which
+     * receives a complete NV21 image with neutral chroma (the detector only looks at luma).
+     */
+    static void downsample(ByteBuffer src, int width, int height, int factor, byte[] dst) {
+        int dstWidth = scaledSize(width, factor);
+        int dstHeight = scaledSize(height, factor);
+        int area = factor * factor;
+
+        int dstOffset = 0;
+        for (int y = 0; y < dstHeight; ++y) {
+            int rowStart = y * factor * width;
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = 0;
+                int blockStart = rowStart + x * factor;
+                for (int dy = 0; dy < factor; ++dy) {
+                    int offset = blockStart + dy * width;
+                    for (int dx = 0; dx < factor; ++dx) {
+                        sum += src.get(offset + dx) & 0xff;
+                    }
+                }
+                dst[dstOffset++] = (byte) (sum / area);
+            }
+        }
+
+        Arrays.fill(dst, dstOffset, dstOffset + dstWidth * dstHeight / 2, (byte) 128);
+    }
+}
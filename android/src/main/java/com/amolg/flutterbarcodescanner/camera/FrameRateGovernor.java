@@ -0,0 +1,177 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches the camera frame rate to what the detection pipeline can absorb.  Frames the detector
+ * has no time for are dropped by the handoff anyway, so producing them only costs CPU, memory
+ * bandwidth and battery.
+ * <p/>
+ * The governor keeps a moving average of the detect latency, from which the number of frames per
+ * second the workers can process follows.  When that capacity stays clearly below the current
+ * preview rate, a slower preview fps range is selected; when it stays clearly above again, the
+ * rate recovers towards the requested one.  Both changes wait for the condition to persist, so
+ * that a single slow frame does not flip the range back and forth.
+ * <p/>
+ * Independently, frames which have waited longer than the maximum age before a worker took them
+ * are dropped as stale rather than decoded.
+ * <p/>
+ * The preview rate is only adapted for the default camera1 source of {@link CameraSource}.
+ */
+public class FrameRateGovernor {
+    private static final long DEFAULT_MAX_FRAME_AGE_MILLIS = 250;
+    private static final int MIN_FPS = 10;
+
+    // weight of the newest sample in the moving average of the detect latency
+    private static final float LATENCY_SMOOTHING = 0.2f;
+    // rate changes are considered at this interval, once the condition held for the dwell time
+    private static final long EVALUATE_INTERVAL_MILLIS = 500;
+    private static final long DWELL_MILLIS = 1500;
+    // back off when the capacity is below this fraction of the current rate, recover above the
+    // other one; the selected rate leaves the given headroom above the capacity
+    private static final float BACK_OFF_RATIO = 0.8f;
+    private static final float RECOVER_RATIO = 1.3f;
+    private static final float HEADROOM = 1.2f;
+
+    private final long mMaxFrameAgeNanos;
+    private volatile int mWorkerCount = 1;
+    private volatile float mRequestedFps = 30.0f;
+
+    private final AtomicLong mDetectNanosAverage = new AtomicLong();
+    private final AtomicLong mStaleFrames = new AtomicLong();
+    private final AtomicLong mRangeChanges = new AtomicLong();
+    private volatile int mCurrentMaxFps;
+
+    // Evaluation state, only touched on the camera thread.
+    private long mLastEvaluationMillis;
+    private long mPendingSinceMillis = -1;
+    private int mPendingDirection;
+
+    public FrameRateGovernor() {
+        this(DEFAULT_MAX_FRAME_AGE_MILLIS);
+    }
+
+    /**
+     * Creates a governor dropping frames which have waited longer than the given time for a
+     * detection worker.
+     */
+    public FrameRateGovernor(long maxFrameAgeMillis) {
+        if (maxFrameAgeMillis <= 0) {
+            throw new IllegalArgumentException("Invalid maximum frame age: " + maxFrameAgeMillis);
+        }
+        mMaxFrameAgeNanos = maxFrameAgeMillis * 1000000L;
+    }
+
+    void configure(int workerCount, float requestedFps) {
+        mWorkerCount = workerCount;
+        mRequestedFps = requestedFps;
+    }
+
+    /**
+     * Adds the detect latency of one frame to the moving average.  Called on the detection
+     * workers.
+     */
+    void recordDetect(long nanos) {
+        long average;
+        long updated;
+        do {
+            average = mDetectNanosAverage.get();
+            updated = average == 0 ? nanos
+                    : average + (long) (LATENCY_SMOOTHING * (nanos - average));
+        } while (!mDetectNanosAverage.compareAndSet(average, updated));
+    }
+
+    /**
+     * Returns true, and counts the frame, if a frame of the given age should be dropped.
+     */
+    boolean dropIfStale(long ageNanos) {
+        if (ageNanos <= mMaxFrameAgeNanos) {
+            return false;
+        }
+        mStaleFrames.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of frames per second the detection workers can currently process, or 0
+     * while there are no samples yet.
+     */
+    public float getCapacityFps() {
+        long average = mDetectNanosAverage.get();
+        return average == 0 ? 0.0f : mWorkerCount * 1e9f / average;
+    }
+
+    public long getStaleFrames() {
+        return mStaleFrames.get();
+    }
+
+    public long getRangeChanges() {
+        return mRangeChanges.get();
+    }
+
+    /**
+     * Returns the preview fps range to switch to, or null to keep the current one.  Ranges are in
+     * thousandths of frames per second, {min, max}, as used by camera1.  Called for every frame
+     * on the camera thread; rates are only reconsidered every half second.
+     */
+    @Nullable
+    int[] selectRange(List<int[]> supported, int[] current, long nowMillis) {
+        mCurrentMaxFps = current[1] / 1000;
+        if (nowMillis - mLastEvaluationMillis < EVALUATE_INTERVAL_MILLIS) {
+            return null;
+        }
+        mLastEvaluationMillis = nowMillis;
+
+        float capacity = getCapacityFps();
+        if (capacity <= 0) {
+            return null;
+        }
+        float currentFps = current[1] / 1000.0f;
+        int direction = 0;
+        if (capacity < currentFps * BACK_OFF_RATIO && currentFps > MIN_FPS) {
+            direction = -1;
+        } else if (capacity > currentFps * RECOVER_RATIO && currentFps < mRequestedFps) {
+            direction = 1;
+        }
+
+        if (direction == 0 || direction != mPendingDirection) {
+            mPendingDirection = direction;
+            mPendingSinceMillis = nowMillis;
+            return null;
+        }
+        if (nowMillis - mPendingSinceMillis < DWELL_MILLIS) {
+            return null;
+        }
+        mPendingDirection = 0;
+
+        float target = Math.max(MIN_FPS, Math.min(mRequestedFps, capacity * HEADROOM));
+        int[] minimums = new int[supported.size()];
+        int[] maximums = new int[supported.size()];
+        for (int i = 0; i < minimums.length; ++i) {
+            minimums[i] = supported.get(i)[0];
+            maximums[i] = supported.get(i)[1];
+        }
+        int selected = CameraSelection.selectFpsRangeAtMost(minimums, maximums,
+                Math.round(target * 1000));
+        if (selected < 0 || (minimums[selected] == current[0] && maximums[selected] == current[1])) {
+            return null;
+        }
+        mRangeChanges.incrementAndGet();
+        return supported.get(selected);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("detectMicrosAverage", mDetectNanosAverage.get() / 1000);
+        map.put("capacityFps", (double) getCapacityFps());
+        map.put("previewMaxFps", mCurrentMaxFps);
+        map.put("staleFrames", getStaleFrames());
+        map.put("rangeChanges", getRangeChanges());
+        return map;
+    }
+}
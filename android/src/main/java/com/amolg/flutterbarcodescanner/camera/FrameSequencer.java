@@ -0,0 +1,66 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+/**
+ * Reorders the detection results of the parallel detection workers, so that the processor (and
+ * thereby the trackers) sees them in frame id order, one frame at a time.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+class FrameSequencer {
+    private final Detector.Processor mProcessor;
+
+    // This lock guards all of the member variables below, and serializes calls into the processor.
+    private final Object mLock = new Object();
+    private int mNextFrameId;
+    private final SparseArray<Detector.Detections> mCompleted = new SparseArray<>();
+
+    FrameSequencer(Detector.Processor processor) {
+        mProcessor = processor;
+    }
+
+    /**
+     * Discards any undelivered results and waits for the given frame id next.
+     */
+    void reset(int nextFrameId) {
+        synchronized (mLock) {
+            mCompleted.clear();
+            mNextFrameId = nextFrameId;
+        }
+    }
+
+    /**
+     * Records the detections for a frame, and delivers every result which is now in order.  A null
+     * detection array marks a frame on which detection failed; it is skipped without delivery.
+     */
+    void complete(int frameId, Frame.Metadata metadata, SparseArray<?> detections,
+                  boolean operational) {
+        synchronized (mLock) {
+            Detector.Detections results = detections == null ? null
+                    : new Detector.Detections(detections, new Frame.Metadata(metadata), operational);
+            if (frameId != mNextFrameId) {
+                mCompleted.put(frameId, results);
+                return;
+            }
+
+            deliver(results);
+            mNextFrameId++;
+            int index;
+            while ((index = mCompleted.indexOfKey(mNextFrameId)) >= 0) {
+                Detector.Detections next = mCompleted.valueAt(index);
+                mCompleted.removeAt(index);
+                deliver(next);
+                mNextFrameId++;
+            }
+        }
+    }
+
+    private void deliver(Detector.Detections results) {
+        if (results != null) {
+            mProcessor.receiveDetections(results);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.Manifest;
+import android.graphics.SurfaceTexture;
+import android.view.SurfaceHolder;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+
+/**
+ * Source of the camera frames consumed by the detection pipeline of {@link CameraSource}.  The
+ * default source drives the camera through the {@code android.hardware.Camera} API;
+ * {@link Camera2FrameSource} uses the camera2 API instead.
+ * <p/>
+ * A source delivers every frame to its listener exactly once, and gets it back through
+ * {@link SourceFrame#release()} when the pipeline is done with it.  A source does not need a
+ * device, so the pipeline can be fed with synthetic frames as well.
+ */
+public interface FrameSource {
+    /**
+     * Receives the frames of a started source, on the thread the source produces them on.
+     */
+    interface FrameListener {
+        void onFrame(SourceFrame frame);
+    }
+
+    /**
+     * Starts producing frames.
+     *
+     * @param preview    the surface to display the preview on, or null for no preview
+     * @param frameCount the number of frames the pipeline may hold at the same time
+     * @param listener   the listener to deliver the frames to
+     * @throws IOException if the source could not be started
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    void start(@Nullable SurfaceHolder preview, int frameCount, FrameListener listener)
+            throws IOException;
+
+    /**
+     * Starts producing frames, displaying the preview on a texture, e.g., one registered with
+     * Flutter.  The default buffer size of the texture is set to the frame size.
+     *
+     * @param preview    the texture to display the preview on
+     * @param frameCount the number of frames the pipeline may hold at the same time
+     * @param listener   the listener to deliver the frames to
+     * @throws IOException if the source could not be started
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    void start(SurfaceTexture preview, int frameCount, FrameListener listener) throws IOException;
+
+    /**
+     * Opens the camera and negotiates its settings ahead of {@link #start}, so that starting only
+     * has to attach the preview.  Takes the same frame count and listener as the following start.
+     * Sources without a costly setup do nothing here.
+     *
+     * @throws IOException if the source could not be prepared
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    default void prepare(int frameCount, FrameListener listener) throws IOException {
+    }
+
+    /**
+     * Stops producing frames.  Frames released after this call are discarded by the source.
+     */
+    void stop();
+
+    /**
+     * Returns the size of the frames, or null if the source has not been started.
+     */
+    @Nullable
+    Size getFrameSize();
+
+    /**
+     * Returns the rotation which makes the frames upright, as one of the Frame.ROTATION_*
+     * values.  Valid once the source has been started.
+     */
+    int getRotation();
+
+    /**
+     * Returns the camera the frames come from; one of {@link CameraSource#CAMERA_FACING_BACK} or
+     * {@link CameraSource#CAMERA_FACING_FRONT}.
+     */
+    int getFacing();
+}
@@ -23,6 +23,7 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
 
@@ -31,25 +32,57 @@ import com.amolg.flutterbarcodescanner.FlutterBarcodeScannerPlugin;
 import com.amolg.flutterbarcodescanner.constants.AppConstants;
 import com.amolg.flutterbarcodescanner.utils.AppUtil;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.Vector;
 
 
+/**
+ * Overlay drawing the scan window and its moving scan line over the camera preview.
+ * <p/>
+ * The window geometry and the paints are prepared once per size change, so drawing does not
+ * allocate.  The scan line is animated from the vsync callbacks of the {@link Choreographer}:
+ * its position follows from the elapsed time rather than from the number of frames drawn, and
+ * the view is only redrawn once the line has moved by a pixel.  The animation stops while the
+ * view is detached or hidden, or while paused with {@link #setAnimationPaused(boolean)}.
+ * <p/>
+ * The graphics of the detected barcodes are only registered, not drawn, so that a tap can be
+ * resolved to the barcode under it.  They are kept in a copy-on-write array: adding or removing
+ * one publishes a new snapshot, so readers never lock, and re-adding a graphic which is already
+ * registered costs nothing.
+ */
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
+    // frames per second the scan line speed was originally tuned for, at one step per frame
+    private static final float LINE_STEPS_PER_SECOND = 60.0f;
+
     private final Object mLock = new Object();
     private float mWidthScaleFactor = 1.0f, mHeightScaleFactor = 1.0f;
 
     private int mFacing = CameraSource.CAMERA_FACING_BACK;
-    private Set<T> mGraphics = new HashSet<>();
+
+    // Current snapshot of the graphics; replaced, never modified, under the lock.
+    private volatile Graphic[] mGraphics = new Graphic[0];
 
     /**
      * Custom added values for overlay
      */
-    private float left, top, endY;
-    private int rectWidth, rectHeight, frames, lineColor, lineWidth;
-    private boolean revAnimation;
+    private int rectWidth, rectHeight, rectOffsetX, rectOffsetY, frames, lineColor, lineWidth;
+
+    // Scan window in pixels and scan line position, set in onSizeChanged.
+    private final RectF mWindowRect = new RectF();
+    private float mLineY;
+    private float mLineSpeed;
+
+    private final Paint mEraser = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLinePaint = new Paint();
+
+    // Animation state, main thread only.  The elapsed time is kept across pauses, so that the
+    // line continues where it stopped.
+    private final Choreographer.FrameCallback mFrameCallback = this::onAnimationFrame;
+    private boolean mAnimationPaused;
+    private boolean mFrameCallbackPosted;
+    private long mLastFrameNanos = -1;
+    private long mElapsedMillis;
 
 
     public static abstract class Graphic {
@@ -80,61 +113,209 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         public float translateY(float y) {
             return scaleY(y);
         }
-
-        public void postInvalidate() {
-            mOverlay.postInvalidate();
-        }
     }
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
 
-        rectWidth = AppConstants.BARCODE_RECT_WIDTH;
-        rectHeight = BarcodeCaptureActivity.SCAN_MODE == BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal()
-                ? AppConstants.BARCODE_RECT_HEIGHT : (int) (AppConstants.BARCODE_RECT_HEIGHT / 1.5);
+        rectWidth = FlutterBarcodeScannerPlugin.scanWindowWidth > 0
+                ? FlutterBarcodeScannerPlugin.scanWindowWidth : AppConstants.BARCODE_RECT_WIDTH;
+        rectHeight = getWindowHeight(BarcodeCaptureActivity.SCAN_MODE);
+        rectOffsetX = FlutterBarcodeScannerPlugin.scanWindowOffsetX;
+        rectOffsetY = FlutterBarcodeScannerPlugin.scanWindowOffsetY;
 
         lineColor = Color.parseColor(FlutterBarcodeScannerPlugin.lineColor);
 
         lineWidth = AppConstants.BARCODE_LINE_WIDTH;
         frames = AppConstants.BARCODE_FRAMES;
+
+        mEraser.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        mLinePaint.setColor(lineColor);
+        mLinePaint.setStrokeWidth(lineWidth);
     }
 
 
+    /**
+     * Returns the scan window height in dp: the requested one, or else a square window for QR
+     * codes and a flatter one for linear barcodes.
+     */
+    private static int getWindowHeight(int scanMode) {
+        if (FlutterBarcodeScannerPlugin.scanWindowHeight > 0) {
+            return FlutterBarcodeScannerPlugin.scanWindowHeight;
+        }
+        return scanMode == BarcodeCaptureActivity.SCAN_MODE_ENUM.QR.ordinal()
+                ? AppConstants.BARCODE_RECT_HEIGHT : (int) (AppConstants.BARCODE_RECT_HEIGHT / 1.5);
+    }
+
+    /**
+     * Reshapes the scan window for the given scan mode, one of the
+     * {@link BarcodeCaptureActivity.SCAN_MODE_ENUM} ordinals, without recreating the view.  The
+     * camera source has to be given the new {@link #getScanWindow()} afterwards.
+     */
+    public void setScanMode(int scanMode) {
+        int height = getWindowHeight(scanMode);
+        if (height == rectHeight) {
+            return;
+        }
+        rectHeight = height;
+        updateWindowRect(getWidth(), getHeight());
+        invalidate();
+    }
+
     public void clear() {
         synchronized (mLock) {
-            mGraphics.clear();
+            mGraphics = new Graphic[0];
         }
-        postInvalidate();
     }
 
 
     public void add(T graphic) {
+        if (indexOf(mGraphics, graphic) >= 0) {
+            return;
+        }
         synchronized (mLock) {
-            mGraphics.add(graphic);
+            Graphic[] graphics = mGraphics;
+            if (indexOf(graphics, graphic) >= 0) {
+                return;
+            }
+            Graphic[] updated = Arrays.copyOf(graphics, graphics.length + 1);
+            updated[graphics.length] = graphic;
+            mGraphics = updated;
+        }
+    }
+
+    private static int indexOf(Graphic[] graphics, Graphic graphic) {
+        for (int i = 0; i < graphics.length; ++i) {
+            if (graphics[i] == graphic) {
+                return i;
+            }
         }
-        postInvalidate();
+        return -1;
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        left = (w - AppUtil.dpToPx(getContext(), rectWidth)) / 2;
-        top = (h - AppUtil.dpToPx(getContext(), rectHeight)) / 2;
-        endY = top;
+        updateWindowRect(w, h);
         super.onSizeChanged(w, h, oldw, oldh);
     }
 
+    private void updateWindowRect(int w, int h) {
+        int windowWidth = AppUtil.dpToPx(getContext(), rectWidth);
+        int windowHeight = AppUtil.dpToPx(getContext(), rectHeight);
+        float left = (w - windowWidth) / 2 + AppUtil.dpToPx(getContext(), rectOffsetX);
+        float top = (h - windowHeight) / 2 + AppUtil.dpToPx(getContext(), rectOffsetY);
+        mWindowRect.set(left, top, left + windowWidth, top + windowHeight);
+        mLineSpeed = frames * LINE_STEPS_PER_SECOND / 1000.0f;
+        mLineY = getLineY(mElapsedMillis);
+    }
+
+    /**
+     * Pauses or resumes the scan line animation, e.g., while nothing is being scanned.  A paused
+     * overlay is not redrawn unless its graphics change.
+     */
+    public void setAnimationPaused(boolean paused) {
+        mAnimationPaused = paused;
+        updateAnimation();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateAnimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        updateAnimation();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateAnimation();
+    }
+
+    /**
+     * Posts or removes the vsync callback, depending on whether the line should be moving.
+     */
+    private void updateAnimation() {
+        boolean running = !mAnimationPaused && isAttachedToWindow()
+                && getWindowVisibility() == VISIBLE;
+        if (running && !mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        } else if (!running && mFrameCallbackPosted) {
+            mFrameCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+        if (!running) {
+            mLastFrameNanos = -1;
+        }
+    }
+
+    private void onAnimationFrame(long frameTimeNanos) {
+        if (mLastFrameNanos >= 0) {
+            mElapsedMillis += (frameTimeNanos - mLastFrameNanos) / 1000000L;
+        }
+        mLastFrameNanos = frameTimeNanos;
+
+        float lineY = getLineY(mElapsedMillis);
+        if (Math.abs(lineY - mLineY) >= 1.0f) {
+            mLineY = lineY;
+            postInvalidateOnAnimation();
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Returns the position of the scan line after the given animation time: it moves down the
+     * window and back up at a constant speed.
+     */
+    private float getLineY(long elapsedMillis) {
+        float travel = mWindowRect.height();
+        if (travel <= 0 || mLineSpeed <= 0) {
+            return mWindowRect.top;
+        }
+        float distance = (elapsedMillis * mLineSpeed) % (2 * travel);
+        return mWindowRect.top + (distance <= travel ? distance : 2 * travel - distance);
+    }
+
 
     public void remove(T graphic) {
         synchronized (mLock) {
-            mGraphics.remove(graphic);
+            Graphic[] graphics = mGraphics;
+            int index = indexOf(graphics, graphic);
+            if (index < 0) {
+                return;
+            }
+            Graphic[] updated = new Graphic[graphics.length - 1];
+            System.arraycopy(graphics, 0, updated, 0, index);
+            System.arraycopy(graphics, index + 1, updated, index, updated.length - index);
+            mGraphics = updated;
         }
-        postInvalidate();
     }
 
+    /**
+     * Returns the graphics currently shown, as an unmodifiable snapshot.
+     */
+    @SuppressWarnings("unchecked")
     public List<T> getGraphics() {
-        synchronized (mLock) {
-            return new Vector(mGraphics);
+        return Collections.unmodifiableList(Arrays.asList((T[]) mGraphics));
+    }
+
+    /**
+     * Returns the scan window as fractions of the overlay size, which matches the displayed
+     * camera preview.
+     */
+    public RectF getScanWindow() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return null;
         }
+        return new RectF(mWindowRect.left / width, mWindowRect.top / height,
+                mWindowRect.right / width, mWindowRect.bottom / height);
     }
 
     public float getWidthScaleFactor() {
@@ -149,7 +330,6 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         synchronized (mLock) {
             mFacing = facing;
         }
-        postInvalidate();
     }
 
     @Override
@@ -157,33 +337,9 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         super.onDraw(canvas);
 
         // draw transparent rect
-        int cornerRadius = 0;
-        Paint eraser = new Paint();
-        eraser.setAntiAlias(true);
-        eraser.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
-
-        RectF rect = new RectF(left, top, AppUtil.dpToPx(getContext(), rectWidth) + left, AppUtil.dpToPx(getContext(), rectHeight) + top);
-        canvas.drawRoundRect(rect, (float) cornerRadius, (float) cornerRadius, eraser);
+        canvas.drawRect(mWindowRect, mEraser);
 
         // draw horizontal line
-        Paint line = new Paint();
-        line.setColor(lineColor);
-        line.setStrokeWidth(Float.valueOf(lineWidth));
-
-        // draw the line to product animation
-        if (endY >= top + AppUtil.dpToPx(getContext(), rectHeight) + frames) {
-            revAnimation = true;
-        } else if (endY == top + frames) {
-            revAnimation = false;
-        }
-
-        // check if the line has reached to bottom
-        if (revAnimation) {
-            endY -= frames;
-        } else {
-            endY += frames;
-        }
-        canvas.drawLine(left, endY, left + AppUtil.dpToPx(getContext(), rectWidth), endY, line);
-        invalidate();
+        canvas.drawLine(mWindowRect.left, mLineY, mWindowRect.right, mLineY, mLinePaint);
     }
-}
\ No newline at end of file
+}
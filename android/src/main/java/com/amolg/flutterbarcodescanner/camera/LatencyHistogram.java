@@ -0,0 +1,101 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with one bucket per power of two.  Recording
+ * is a handful of atomic increments, so it can be called for every frame from any thread;
+ * percentiles are accurate to within a factor of two, which is enough to tell where time goes.
+ */
+public class LatencyHistogram {
+    // bucket i counts durations in [2^i, 2^(i+1)) ns; the last bucket also holds anything longer
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * Records one duration.  Negative durations are counted as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+        mBuckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = mMaxNanos.get()) && !mMaxNanos.compareAndSet(max, nanos)) {
+            // retry until this duration is stored or a longer one has been
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations, in nanoseconds.
+     */
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * Returns the longest recorded duration, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile (0 to 100) of the recorded durations, in
+     * nanoseconds, i.e., the upper end of the bucket the percentile falls into.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = 0;
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; ++i) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min((1L << (i + 1)) - 1, mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Returns a summary of the histogram, in microseconds.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", getCount());
+        map.put("meanMicros", getMeanNanos() / 1000);
+        map.put("p50Micros", getPercentileNanos(50) / 1000);
+        map.put("p90Micros", getPercentileNanos(90) / 1000);
+        map.put("p99Micros", getPercentileNanos(99) / 1000);
+        map.put("maxMicros", getMaxNanos() / 1000);
+        return map;
+    }
+}
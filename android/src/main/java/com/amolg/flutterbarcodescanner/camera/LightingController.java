@@ -0,0 +1,378 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adapts the camera to the brightness of the scene.  In dim light most frames cannot be decoded,
+ * yet each of them costs a full detector call.
+ * <p/>
+ * The brightness is measured about ten times per second on a sparse grid of luma samples within
+ * the scan window: the mean, and the 10th and 90th percentiles of a coarse histogram, each
+ * smoothed over recent measurements.  From these, the controller
+ * <ul>
+ * <li>raises the exposure compensation in dim scenes and lowers it on glare, half an EV at a
+ * time,</li>
+ * <li>turns on the torch once the exposure compensation is exhausted and the scene is still dark,
+ * and off again once the scene is clearly brighter than it was with the torch; only if auto
+ * torch is enabled,</li>
+ * <li>locks the auto-exposure and auto-white-balance once the brightness has been stable for a
+ * while, so that they do not hunt on glossy labels, and unlocks them when it drifts away.</li>
+ * </ul>
+ * Every decision waits for its condition to persist, and for the camera to settle after the
+ * previous change, so that the settings do not flip back and forth.  Frames whose brightest
+ * parts are still nearly black are skipped, except for one after a run of skipped frames.
+ * <p/>
+ * Once the user switched the torch, auto torch leaves it alone until it is enabled again.  Torch
+ * changes made by the controller are reported to the listener, e.g., to keep a flash icon in
+ * sync.
+ */
+public class LightingController {
+    // the brightness is measured at this interval, on the next frame
+    private static final long MEASURE_INTERVAL_NANOS = 100000000L;
+    // the grid has at most this many samples per axis, and at least this spacing between them
+    private static final int MAX_SAMPLES_PER_AXIS = 32;
+    private static final int MIN_SAMPLE_STEP = 4;
+    // histogram of the luma in bins of four levels
+    private static final int HISTOGRAM_SHIFT = 2;
+    // weight of the newest measurement in the smoothed values
+    private static final float SMOOTHING = 0.3f;
+
+    // the exposure is raised below the first mean luma, and lowered above the second one or when
+    // the bright parts saturate
+    private static final float UNDEREXPOSED_LUMA = 60.0f;
+    private static final float OVEREXPOSED_LUMA = 180.0f;
+    private static final float GLARE_LUMA = 250.0f;
+    private static final float EXPOSURE_STEP_EV = 0.5f;
+    // the torch is turned on below this mean luma, and off above the given multiple of the mean
+    // luma measured with the torch on, and at least above the minimum
+    private static final float TORCH_ON_LUMA = 40.0f;
+    private static final float TORCH_OFF_RATIO = 1.5f;
+    private static final float TORCH_OFF_MIN_LUMA = 120.0f;
+    // locked once the mean luma stayed within the tolerance, unlocked when it moved by the delta
+    private static final float LOCK_TOLERANCE_LUMA = 10.0f;
+    private static final float UNLOCK_DELTA_LUMA = 30.0f;
+    // frames whose 90th percentile is below this luma are skipped
+    private static final float DARK_FRAME_LUMA = 16.0f;
+    private static final int MAX_CONSECUTIVE_SKIPS = 8;
+
+    private static final long EXPOSURE_DWELL_MILLIS = 1000;
+    private static final long TORCH_DWELL_MILLIS = 2000;
+    private static final long LOCK_DWELL_MILLIS = 1500;
+    // no decision is taken for this long after a change
+    private static final long SETTLE_MILLIS = 500;
+
+    /**
+     * Notified on the main thread when the controller switched the torch.
+     */
+    public interface Listener {
+        void onTorchChanged(boolean on);
+    }
+
+    private volatile boolean mAutoTorch;
+    private volatile Listener mListener;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final int[] mHistogram = new int[256 >> HISTOGRAM_SHIFT];
+    private long mLastMeasureNanos;
+    private boolean mMeasured;
+    private float mMean;
+    private float mLowPercentile;
+    private float mHighPercentile;
+    private int mFacing = -1;
+    private boolean mManualTorch;
+    // capabilities found missing on the current camera
+    private boolean mTorchUnsupported;
+    private boolean mLockUnsupported;
+    private boolean mTorchOn;
+    // mean luma measured once the torch had settled, or -1 until then
+    private float mTorchLuma = -1.0f;
+    private boolean mLocked;
+    private float mLockedLuma;
+    private float mStableLuma;
+    private long mStableSinceMillis;
+    private long mDarkSinceMillis = -1;
+    private long mBrightSinceMillis = -1;
+    private long mTorchOffSinceMillis = -1;
+    private long mLastChangeMillis;
+    private int mConsecutiveSkips;
+    private long mFramesSkipped;
+    private long mTorchChanges;
+    private long mExposureChanges;
+    private long mLockChanges;
+
+    public LightingController() {
+        this(false);
+    }
+
+    /**
+     * @param autoTorch whether the controller may switch the torch
+     */
+    public LightingController(boolean autoTorch) {
+        mAutoTorch = autoTorch;
+    }
+
+    /**
+     * Enables or disables switching the torch.  Enabling it also takes the torch back from the
+     * user.
+     */
+    public void setAutoTorch(boolean autoTorch) {
+        synchronized (mLock) {
+            mAutoTorch = autoTorch;
+            mManualTorch = false;
+        }
+    }
+
+    public boolean isAutoTorch() {
+        return mAutoTorch;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records that the user switched the torch, which auto torch then leaves alone.
+     */
+    public void onTorchSetByUser() {
+        synchronized (mLock) {
+            mManualTorch = true;
+        }
+    }
+
+    /**
+     * Measures the frame within the crop region, or the whole frame without one, when a
+     * measurement is due and adapts the camera to it.  Returns true if the frame is bright enough
+     * to be decoded.  Called on the detection workers.
+     */
+    boolean accept(SourceFrame frame, @Nullable CropRegion crop, CameraSource source) {
+        long nowNanos = System.nanoTime();
+        synchronized (mLock) {
+            if (!mMeasured || nowNanos - mLastMeasureNanos >= MEASURE_INTERVAL_NANOS) {
+                mLastMeasureNanos = nowNanos;
+                if (crop != null && crop.fits(frame)) {
+                    measure(frame.mData, frame.mRowStride, crop.mLeft, crop.mTop, crop.mWidth,
+                            crop.mHeight);
+                } else {
+                    measure(frame.mData, frame.mRowStride, 0, 0, frame.mWidth, frame.mHeight);
+                }
+                adapt(source, SystemClock.elapsedRealtime());
+            }
+
+            if (!mMeasured || mHighPercentile >= DARK_FRAME_LUMA
+                    || mConsecutiveSkips >= MAX_CONSECUTIVE_SKIPS) {
+                mConsecutiveSkips = 0;
+                return true;
+            }
+            ++mConsecutiveSkips;
+            ++mFramesSkipped;
+            return false;
+        }
+    }
+
+    /**
+     * Adds the luma histogram of a grid of samples within the given region of a luma plane to the
+     * smoothed mean and percentiles.
+     */
+    private void measure(ByteBuffer luma, int rowStride, int left, int top, int width,
+                         int height) {
+        int stepX = Math.max(MIN_SAMPLE_STEP, width / MAX_SAMPLES_PER_AXIS);
+        int stepY = Math.max(MIN_SAMPLE_STEP, height / MAX_SAMPLES_PER_AXIS);
+
+        Arrays.fill(mHistogram, 0);
+        long sum = 0;
+        int samples = 0;
+        for (int y = top + stepY / 2; y < top + height; y += stepY) {
+            int rowStart = y * rowStride;
+            for (int x = left + stepX / 2; x < left + width; x += stepX) {
+                int value = luma.get(rowStart + x) & 0xff;
+                sum += value;
+                ++mHistogram[value >> HISTOGRAM_SHIFT];
+                ++samples;
+            }
+        }
+        if (samples == 0) {
+            return;
+        }
+
+        float mean = (float) sum / samples;
+        float low = percentile(samples / 10);
+        float high = percentile(samples - samples / 10);
+        if (!mMeasured) {
+            mMean = mean;
+            mLowPercentile = low;
+            mHighPercentile = high;
+            mMeasured = true;
+        } else {
+            mMean += SMOOTHING * (mean - mMean);
+            mLowPercentile += SMOOTHING * (low - mLowPercentile);
+            mHighPercentile += SMOOTHING * (high - mHighPercentile);
+        }
+    }
+
+    /**
+     * Returns the center luma of the histogram bin holding the sample of the given rank.
+     */
+    private float percentile(int rank) {
+        int count = 0;
+        for (int bin = 0; bin < mHistogram.length; ++bin) {
+            count += mHistogram[bin];
+            if (count > rank) {
+                return (bin << HISTOGRAM_SHIFT) + (1 << HISTOGRAM_SHIFT) / 2.0f;
+            }
+        }
+        return 255.0f;
+    }
+
+    /**
+     * Takes at most one decision on the latest measurement.
+     */
+    private void adapt(CameraSource source, long now) {
+        int facing = source.getCameraFacing();
+        if (facing != mFacing) {
+            // a new camera starts out unlocked
+            mFacing = facing;
+            mTorchUnsupported = false;
+            mLockUnsupported = false;
+            mLocked = false;
+            mTorchLuma = -1.0f;
+            mDarkSinceMillis = -1;
+            mBrightSinceMillis = -1;
+            mTorchOffSinceMillis = -1;
+            mLastChangeMillis = now;
+        }
+        mTorchOn = Camera.Parameters.FLASH_MODE_TORCH.equals(source.getFlashMode());
+        if (!mTorchOn) {
+            mTorchLuma = -1.0f;
+        }
+
+        boolean dark = mMean < UNDEREXPOSED_LUMA;
+        boolean bright = mMean > OVEREXPOSED_LUMA || mHighPercentile >= GLARE_LUMA;
+        mDarkSinceMillis = dark ? (mDarkSinceMillis < 0 ? now : mDarkSinceMillis) : -1;
+        mBrightSinceMillis = bright ? (mBrightSinceMillis < 0 ? now : mBrightSinceMillis) : -1;
+        if (Math.abs(mMean - mStableLuma) > LOCK_TOLERANCE_LUMA) {
+            mStableLuma = mMean;
+            mStableSinceMillis = now;
+        }
+        if (now - mLastChangeMillis < SETTLE_MILLIS) {
+            return;
+        }
+        if (mTorchOn && mTorchLuma < 0) {
+            mTorchLuma = mMean;
+        }
+
+        if (mLocked && Math.abs(mMean - mLockedLuma) > UNLOCK_DELTA_LUMA) {
+            setLocked(source, false, now);
+            return;
+        }
+
+        int exposure = source.getExposureCompensation();
+        int exposureStep = Math.max(1,
+                Math.round(EXPOSURE_STEP_EV / Math.max(source.getExposureCompensationStep(),
+                        0.01f)));
+        if (mDarkSinceMillis >= 0 && now - mDarkSinceMillis >= EXPOSURE_DWELL_MILLIS
+                && exposure < source.getMaxExposureCompensation()) {
+            changeExposure(source, exposure + exposureStep, now);
+            return;
+        }
+        if (mBrightSinceMillis >= 0 && now - mBrightSinceMillis >= EXPOSURE_DWELL_MILLIS
+                && exposure > source.getMinExposureCompensation()) {
+            changeExposure(source, exposure - exposureStep, now);
+            return;
+        }
+
+        if (mAutoTorch && !mManualTorch && !mTorchUnsupported) {
+            if (!mTorchOn && mMean < TORCH_ON_LUMA && mDarkSinceMillis >= 0
+                    && now - mDarkSinceMillis >= TORCH_DWELL_MILLIS) {
+                changeTorch(source, true, now);
+                return;
+            }
+            boolean torchUnneeded = mTorchOn && mTorchLuma >= 0
+                    && mMean > Math.max(TORCH_OFF_MIN_LUMA, mTorchLuma * TORCH_OFF_RATIO);
+            mTorchOffSinceMillis = torchUnneeded
+                    ? (mTorchOffSinceMillis < 0 ? now : mTorchOffSinceMillis) : -1;
+            if (mTorchOffSinceMillis >= 0 && now - mTorchOffSinceMillis >= TORCH_DWELL_MILLIS) {
+                changeTorch(source, false, now);
+                return;
+            }
+        }
+
+        if (!mLocked && !mLockUnsupported && !dark && !bright
+                && now - mStableSinceMillis >= LOCK_DWELL_MILLIS) {
+            setLocked(source, true, now);
+        }
+    }
+
+    private void changeExposure(CameraSource source, int exposure, long now) {
+        if (mLocked) {
+            setLocked(source, false, now);
+        }
+        source.setExposureCompensation(exposure, null);
+        mLastChangeMillis = now;
+        mDarkSinceMillis = -1;
+        mBrightSinceMillis = -1;
+        ++mExposureChanges;
+    }
+
+    private void changeTorch(CameraSource source, boolean on, long now) {
+        String mode = on ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF;
+        boolean supported = source.setFlashMode(mode, success -> {
+            Listener listener = mListener;
+            if (success && listener != null) {
+                listener.onTorchChanged(on);
+            }
+        });
+        if (!supported) {
+            // e.g., a front camera without flash
+            mTorchUnsupported = true;
+            return;
+        }
+        if (mLocked) {
+            setLocked(source, false, now);
+        }
+        mTorchOn = on;
+        mTorchLuma = -1.0f;
+        mTorchOffSinceMillis = -1;
+        mLastChangeMillis = now;
+        ++mTorchChanges;
+    }
+
+    private void setLocked(CameraSource source, boolean locked, long now) {
+        if (!source.setExposureLock(locked, null)) {
+            mLockUnsupported = true;
+            mLocked = false;
+            return;
+        }
+        mLocked = locked;
+        mLockedLuma = mMean;
+        mStableLuma = mMean;
+        mStableSinceMillis = now;
+        mLastChangeMillis = now;
+        ++mLockChanges;
+    }
+
+    public Map<String, Object> toMap() {
+        synchronized (mLock) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("meanLuma", (double) mMean);
+            map.put("p10Luma", (double) mLowPercentile);
+            map.put("p90Luma", (double) mHighPercentile);
+            map.put("torch", mTorchOn);
+            map.put("autoTorch", mAutoTorch && !mManualTorch);
+            map.put("exposureLocked", mLocked);
+            map.put("torchChanges", mTorchChanges);
+            map.put("exposureChanges", mExposureChanges);
+            map.put("lockChanges", mLockChanges);
+            map.put("framesSkipped", mFramesSkipped);
+            return map;
+        }
+    }
+}
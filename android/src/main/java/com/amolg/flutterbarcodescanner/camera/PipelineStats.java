@@ -0,0 +1,79 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of the detection pipeline of a camera source.  One instance may be shared
+ * by several camera sources, e.g., to keep the numbers across camera switches.
+ * <p/>
+ * All timings use the monotonic clock of {@link System#nanoTime()}:
+ * <ul>
+ * <li>handoff: from the frame arriving from the source to a detection worker taking it</li>
+ * <li>detect: the detector calls for the frame, including all decode pyramid levels</li>
+ * <li>deliver: from the end of detection until the results have been delivered in order</li>
+ * <li>total: from the frame arriving to its results having been delivered</li>
+ * </ul>
+ */
+public class PipelineStats {
+    final LatencyHistogram mHandoff = new LatencyHistogram();
+    final LatencyHistogram mDetect = new LatencyHistogram();
+    final LatencyHistogram mDeliver = new LatencyHistogram();
+    final LatencyHistogram mTotal = new LatencyHistogram();
+
+    final AtomicLong mFramesReceived = new AtomicLong();
+    final AtomicLong mFramesDropped = new AtomicLong();
+    final AtomicLong mDetectorErrors = new AtomicLong();
+
+    public LatencyHistogram getHandoffLatency() {
+        return mHandoff;
+    }
+
+    public LatencyHistogram getDetectLatency() {
+        return mDetect;
+    }
+
+    public LatencyHistogram getDeliverLatency() {
+        return mDeliver;
+    }
+
+    public LatencyHistogram getTotalLatency() {
+        return mTotal;
+    }
+
+    /**
+     * Returns the number of frames received from the frame source while detection was running.
+     */
+    public long getFramesReceived() {
+        return mFramesReceived.get();
+    }
+
+    /**
+     * Returns the number of frames replaced by a newer frame before any worker was free to take
+     * them.
+     */
+    public long getFramesDropped() {
+        return mFramesDropped.get();
+    }
+
+    /**
+     * Returns the number of frames on which the detector threw.
+     */
+    public long getDetectorErrors() {
+        return mDetectorErrors.get();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("framesReceived", getFramesReceived());
+        map.put("framesDropped", getFramesDropped());
+        map.put("framesProcessed", mDetect.getCount());
+        map.put("detectorErrors", getDetectorErrors());
+        map.put("handoff", mHandoff.toMap());
+        map.put("detect", mDetect.toMap());
+        map.put("deliver", mDeliver.toMap());
+        map.put("total", mTotal.toMap());
+        return map;
+    }
+}
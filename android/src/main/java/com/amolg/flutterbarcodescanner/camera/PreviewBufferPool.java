@@ -0,0 +1,189 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import com.google.android.gms.common.images.Size;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity pool of NV21 preview buffers.  The buffers are allocated once for a preview size
+ * and reused across camera starts, stops and facing switches for as long as the size and depth
+ * stay the same, so the camera never has to wait on the garbage collector for fresh multi-megabyte
+ * arrays.
+ * <p/>
+ * Lookups from the camera callback scan a small immutable array by identity and never take a lock.
+ */
+@SuppressWarnings("deprecation")
+public class PreviewBufferPool {
+    private final int mDepth;
+
+    // Only replaced (never mutated) under the pool lock, so readers can use it without locking.
+    private volatile Buffer[] mBuffers = new Buffer[0];
+    private Size mSize;
+
+    // The camera the buffers are queued with, if any.  The generation changes with every attach
+    // and detach, so that buffers taken from an earlier camera are never queued with a later one.
+    // Both are only changed under the pool lock, which release() holds while queueing a buffer, so
+    // that a buffer is never queued with a camera that has been closed.
+    private volatile Camera mCamera;
+    private volatile int mGeneration;
+
+    private final AtomicInteger mInCamera = new AtomicInteger();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicLong mStarvationCount = new AtomicLong();
+    private final AtomicLong mReallocationCount = new AtomicLong();
+
+    /**
+     * A preview buffer, delivered to the detection pipeline as an NV21 frame.
+     */
+    static final class Buffer extends SourceFrame {
+        final PreviewBufferPool mPool;
+        final int mIndex;
+        final byte[] mArray;
+        int mGeneration;
+
+        Buffer(PreviewBufferPool pool, int index, byte[] array, Size size) {
+            super(ByteBuffer.wrap(array), size.getWidth(), size.getHeight(), size.getWidth(), true);
+            mPool = pool;
+            mIndex = index;
+            mArray = array;
+            if (!mData.hasArray() || (mData.array() != array)) {
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+        }
+
+        @Override
+        public void release() {
+            mPool.release(this);
+        }
+    }
+
+    /**
+     * Creates a pool holding the given number of buffers.  A depth of zero lets each camera source
+     * pick the minimum number of buffers its detection workers need.
+     */
+    public PreviewBufferPool(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool depth: " + depth);
+        }
+        mDepth = depth;
+    }
+
+    /**
+     * Returns the configured depth, or zero if the camera source chooses it.
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Makes sure the pool holds {@code count} buffers of the size needed for the given preview
+     * size, reallocating only if the current buffers do not match.
+     */
+    synchronized void allocate(Size previewSize, int count) {
+        if (previewSize.equals(mSize) && mBuffers.length == count) {
+            return;
+        }
+
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
+        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+
+        Buffer[] buffers = new Buffer[count];
+        for (int i = 0; i < count; ++i) {
+            buffers[i] = new Buffer(this, i, new byte[bufferSize], previewSize);
+        }
+        mBuffers = buffers;
+        mSize = previewSize;
+        mReallocationCount.incrementAndGet();
+    }
+
+    /**
+     * Queues every buffer with a freshly opened camera.
+     */
+    synchronized void attach(Camera camera) {
+        Buffer[] buffers = mBuffers;
+        mGeneration++;
+        mCamera = camera;
+        mInFlight.set(0);
+        mInCamera.set(buffers.length);
+        for (Buffer buffer : buffers) {
+            camera.addCallbackBuffer(buffer.mArray);
+        }
+    }
+
+    /**
+     * Marks every buffer as idle.  Must be called before the camera using them is closed.
+     */
+    synchronized void detach() {
+        mGeneration++;
+        mCamera = null;
+        mInFlight.set(0);
+        mInCamera.set(0);
+    }
+
+    /**
+     * Looks up the pool buffer for an array filled by the camera, and marks it as in flight.
+     * Returns null if the array does not belong to this pool (e.g., after a reallocation).
+     */
+    Buffer acquire(byte[] data) {
+        for (Buffer buffer : mBuffers) {
+            if (buffer.mArray == data) {
+                buffer.mGeneration = mGeneration;
+                mInFlight.incrementAndGet();
+                if (mInCamera.decrementAndGet() <= 0) {
+                    // The camera has nothing left to fill, so it drops frames until a buffer
+                    // comes back.
+                    mStarvationCount.incrementAndGet();
+                }
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands a buffer which is in flight back to the camera for reuse.  Buffers taken from a camera
+     * which has been detached since are dropped, as they are requeued on the next attach.
+     */
+    synchronized void release(Buffer buffer) {
+        if (mCamera == null || buffer.mGeneration != mGeneration) {
+            return;
+        }
+        mInFlight.decrementAndGet();
+        mInCamera.incrementAndGet();
+        mCamera.addCallbackBuffer(buffer.mArray);
+    }
+
+    /**
+     * Returns the number of buffers currently allocated.
+     */
+    public int getCapacity() {
+        return mBuffers.length;
+    }
+
+    /**
+     * Returns the number of buffers held by the detection pipeline rather than the camera.
+     */
+    public int getBuffersInFlight() {
+        return mInFlight.get();
+    }
+
+    /**
+     * Returns how many times the camera was left without a buffer to fill.
+     */
+    public long getStarvationCount() {
+        return mStarvationCount.get();
+    }
+
+    /**
+     * Returns how many times the buffers had to be (re)allocated.
+     */
+    public long getReallocationCount() {
+        return mReallocationCount.get();
+    }
+}
@@ -0,0 +1,148 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Skips motion-blurred frames before they reach the detector.  While the device is moving most
+ * frames cannot be decoded, yet each of them costs a full detector call.
+ * <p/>
+ * The sharpness of a frame is the mean gradient energy of its luma plane, sampled on a sparse
+ * grid within the scan window, so measuring it costs a few thousand pixel reads.  A frame is
+ * skipped when its sharpness falls below a fraction of the moving average of recent frames; the
+ * average follows the scene, so the threshold adapts to the lighting and texture in view.  After
+ * a run of skipped frames one frame is let through anyway, so that a scene which stays blurry,
+ * or simply has little texture, is still decoded now and then.
+ */
+public class SharpnessGate {
+    private static final float DEFAULT_THRESHOLD_RATIO = 0.5f;
+    private static final int DEFAULT_MAX_CONSECUTIVE_SKIPS = 4;
+
+    // weight of the newest frame in the moving average of the sharpness
+    private static final float SMOOTHING = 0.1f;
+    // frames let through unconditionally while the average settles
+    private static final int WARM_UP_FRAMES = 5;
+    // the grid has at most this many samples per axis, and at least this spacing between them
+    private static final int MAX_SAMPLES_PER_AXIS = 48;
+    private static final int MIN_SAMPLE_STEP = 4;
+
+    private final float mThresholdRatio;
+    private final int mMaxConsecutiveSkips;
+
+    // moving average of the sharpness, as float bits
+    private final AtomicInteger mAverage = new AtomicInteger(Float.floatToIntBits(0.0f));
+    private final AtomicInteger mConsecutiveSkips = new AtomicInteger();
+    private final AtomicLong mFramesMeasured = new AtomicLong();
+    private final AtomicLong mFramesSkipped = new AtomicLong();
+
+    public SharpnessGate() {
+        this(DEFAULT_THRESHOLD_RATIO, DEFAULT_MAX_CONSECUTIVE_SKIPS);
+    }
+
+    /**
+     * @param thresholdRatio      frames below this fraction of the average sharpness are skipped
+     * @param maxConsecutiveSkips the number of frames skipped in a row before one is let through
+     */
+    public SharpnessGate(float thresholdRatio, int maxConsecutiveSkips) {
+        if (thresholdRatio <= 0.0f || thresholdRatio >= 1.0f) {
+            throw new IllegalArgumentException("Invalid threshold ratio: " + thresholdRatio);
+        }
+        if (maxConsecutiveSkips < 0) {
+            throw new IllegalArgumentException("Invalid skip count: " + maxConsecutiveSkips);
+        }
+        mThresholdRatio = thresholdRatio;
+        mMaxConsecutiveSkips = maxConsecutiveSkips;
+    }
+
+    /**
+     * Measures the frame within the crop region, or the whole frame without one, and returns
+     * true if it is sharp enough to be decoded.  Called on the detection workers.
+     */
+    boolean accept(SourceFrame frame, @Nullable CropRegion crop) {
+        float sharpness;
+        if (crop != null && crop.fits(frame)) {
+            sharpness = measure(frame.mData, frame.mRowStride, crop.mLeft, crop.mTop,
+                    crop.mWidth, crop.mHeight);
+        } else {
+            sharpness = measure(frame.mData, frame.mRowStride, 0, 0, frame.mWidth, frame.mHeight);
+        }
+
+        float average = updateAverage(sharpness);
+        boolean sharp = mFramesMeasured.incrementAndGet() <= WARM_UP_FRAMES
+                || sharpness >= average * mThresholdRatio;
+        if (sharp || mConsecutiveSkips.get() >= mMaxConsecutiveSkips) {
+            mConsecutiveSkips.set(0);
+            return true;
+        }
+        mConsecutiveSkips.incrementAndGet();
+        mFramesSkipped.incrementAndGet();
+        return false;
+    }
+
+    private float updateAverage(float sharpness) {
+        int bits;
+        float updated;
+        do {
+            bits = mAverage.get();
+            float average = Float.intBitsToFloat(bits);
+            updated = mFramesMeasured.get() == 0 ? sharpness
+                    : average + SMOOTHING * (sharpness - average);
+        } while (!mAverage.compareAndSet(bits, Float.floatToIntBits(updated)));
+        return updated;
+    }
+
+    /**
+     * Returns the mean squared luma gradient over a grid of samples within the given region of a
+     * luma plane.  Gradients are taken between direct neighbours, as blur mostly removes the
+     * differences between adjacent pixels.
+     */
+    static float measure(ByteBuffer luma, int rowStride, int left, int top, int width,
+                         int height) {
+        int stepX = Math.max(MIN_SAMPLE_STEP, width / MAX_SAMPLES_PER_AXIS);
+        int stepY = Math.max(MIN_SAMPLE_STEP, height / MAX_SAMPLES_PER_AXIS);
+
+        long energy = 0;
+        int samples = 0;
+        for (int y = top + 1; y < top + height - 1; y += stepY) {
+            int rowStart = y * rowStride;
+            for (int x = left + 1; x < left + width - 1; x += stepX) {
+                int offset = rowStart + x;
+                int dx = (luma.get(offset + 1) & 0xff) - (luma.get(offset - 1) & 0xff);
+                int dy = (luma.get(offset + rowStride) & 0xff) - (luma.get(offset - rowStride) & 0xff);
+                energy += dx * dx + dy * dy;
+                ++samples;
+            }
+        }
+        return samples == 0 ? 0.0f : (float) energy / samples;
+    }
+
+    public long getFramesMeasured() {
+        return mFramesMeasured.get();
+    }
+
+    public long getFramesSkipped() {
+        return mFramesSkipped.get();
+    }
+
+    /**
+     * Returns the fraction of measured frames which were skipped.
+     */
+    public float getSkipRatio() {
+        long measured = mFramesMeasured.get();
+        return measured == 0 ? 0.0f : (float) mFramesSkipped.get() / measured;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("framesMeasured", getFramesMeasured());
+        map.put("framesSkipped", getFramesSkipped());
+        map.put("skipRatio", (double) getSkipRatio());
+        map.put("averageSharpness", (double) Float.intBitsToFloat(mAverage.get()));
+        return map;
+    }
+}
@@ -0,0 +1,56 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame produced by a {@link FrameSource}.  The image is a luma plane of {@code rowStride}
+ * bytes per row, optionally followed by the interleaved V/U plane of an NV21 image.  Buffers may
+ * be direct, so that frames can be handed to the detector without copying them onto the heap.
+ */
+public abstract class SourceFrame {
+    final ByteBuffer mData;
+    final int mWidth;
+    final int mHeight;
+    final int mRowStride;
+    final boolean mHasChroma;
+
+    // Set by the detection pipeline when the frame is received.
+    long mTimestampMillis;
+    long mReceivedNanos;
+
+    /**
+     * @param data      the image data
+     * @param width     the width of the image, in pixels
+     * @param height    the height of the image, in pixels
+     * @param rowStride the distance between the starts of two luma rows, in bytes
+     * @param hasChroma whether the data is a complete NV21 image, rather than luma only
+     */
+    protected SourceFrame(ByteBuffer data, int width, int height, int rowStride,
+                          boolean hasChroma) {
+        if (rowStride < width) {
+            throw new IllegalArgumentException("Invalid row stride: " + rowStride);
+        }
+        if (hasChroma && rowStride != width) {
+            throw new IllegalArgumentException("NV21 frames cannot have padded rows.");
+        }
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mRowStride = rowStride;
+        mHasChroma = hasChroma;
+    }
+
+    /**
+     * Returns true if the frame is a complete NV21 image whose rows follow each other without
+     * padding, so that it can be handed to the detector as it is.
+     */
+    boolean isPackedNv21() {
+        return mHasChroma && mRowStride == mWidth;
+    }
+
+    /**
+     * Hands the frame back to its source.  Called exactly once for every delivered frame; the
+     * frame must not be used afterwards.
+     */
+    public abstract void release();
+}
@@ -6,4 +6,9 @@ public interface AppConstants {
     String BARCODE_LINE_COLOR = "#ff669900";
     int BARCODE_LINE_WIDTH = 4;
     int BARCODE_FRAMES = 5;
+    int BARCODE_DETECTION_WORKERS_MAX = 4;
+    int BARCODE_DECODE_DOWNSAMPLING = 2;
+    int IMAGE_DECODE_WORKERS_MAX = 4;
+    int IMAGE_DECODE_MAX_DIMENSION = 1600;
+    int IMAGE_DECODE_TILE_SIZE = 1024;
 }
@@ -0,0 +1,116 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small harness for the JVM benchmarks, i.e., the unit test classes named *Benchmark, which only
+ * run when Gradle is given {@code -Pbenchmark}.
+ * <p/>
+ * An operation is run until it is warmed up, then timed in batches sized to take a few tens of
+ * milliseconds each, and reported as the median, minimum and maximum time per operation over
+ * the batches.  Latency histograms recorded by the pipeline can be reported as they are.  The
+ * results of a suite are written as JSON to {@code <suite>.json} in the directory given by the
+ * {@code benchmark.outputDir} system property.
+ */
+final class Benchmarker {
+    private static final long WARM_UP_NANOS = 300_000_000L;
+    private static final long BATCH_NANOS = 20_000_000L;
+    private static final int BATCH_COUNT = 25;
+
+    /**
+     * An operation to time.  Returns a value derived from its work, so that the work cannot be
+     * optimized away.
+     */
+    interface Operation {
+        long run(int iteration);
+    }
+
+    private final String mSuite;
+    private final List<String> mResults = new ArrayList<>();
+    // Sum of all values returned by the operations, only kept so that they are used.
+    private long mSink;
+
+    Benchmarker(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Times an operation and records the result under the given name.  Returns the median time
+     * per operation, in nanoseconds.
+     */
+    double measure(String name, Operation operation) {
+        // warm up, estimating the number of operations which fit into a batch on the way
+        int iteration = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            mSink += operation.run(iteration++);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < WARM_UP_NANOS);
+        int batchSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) iteration * BATCH_NANOS / elapsed));
+
+        double[] nanosPerOp = new double[BATCH_COUNT];
+        for (int batch = 0; batch < BATCH_COUNT; ++batch) {
+            long batchStart = System.nanoTime();
+            for (int i = 0; i < batchSize; ++i) {
+                mSink += operation.run(iteration++);
+            }
+            nanosPerOp[batch] = (double) (System.nanoTime() - batchStart) / batchSize;
+        }
+        Arrays.sort(nanosPerOp);
+        double median = nanosPerOp[BATCH_COUNT / 2];
+        mResults.add(String.format(Locale.ROOT,
+                "{\"name\": \"%s\", \"unit\": \"ns/op\", \"median\": %.3f, \"min\": %.3f, "
+                        + "\"max\": %.3f, \"batches\": %d, \"batchSize\": %d}",
+                name, median, nanosPerOp[0], nanosPerOp[BATCH_COUNT - 1], BATCH_COUNT,
+                batchSize));
+        return median;
+    }
+
+    /**
+     * Records the durations collected in a histogram under the given name.
+     */
+    void record(String name, LatencyHistogram histogram) {
+        mResults.add(String.format(Locale.ROOT,
+                "{\"name\": \"%s\", \"unit\": \"ns\", \"count\": %d, \"mean\": %d, \"p50\": %d, "
+                        + "\"p90\": %d, \"p99\": %d, \"max\": %d}",
+                name, histogram.getCount(), histogram.getMeanNanos(),
+                histogram.getPercentileNanos(50), histogram.getPercentileNanos(90),
+                histogram.getPercentileNanos(99), histogram.getMaxNanos()));
+    }
+
+    /**
+     * Writes the results recorded so far, and returns the file they were written to.
+     */
+    File write() throws IOException {
+        File dir = new File(System.getProperty("benchmark.outputDir", "build/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = new File(dir, mSuite + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT,
+                    "{\"suite\": \"%s\", \"timestamp\": %d, \"vm\": \"%s %s\", \"arch\": \"%s\", "
+                            + "\"processors\": %d, \"results\": [\n",
+                    mSuite, System.currentTimeMillis(), System.getProperty("java.vm.name"),
+                    System.getProperty("java.vm.version"), System.getProperty("os.arch"),
+                    Runtime.getRuntime().availableProcessors()));
+            for (int i = 0; i < mResults.size(); ++i) {
+                writer.write("  " + mResults.get(i) + (i + 1 < mResults.size() ? ",\n" : "\n"));
+            }
+            writer.write("], \"sink\": " + mSink + "}\n");
+        }
+        return file;
+    }
+}
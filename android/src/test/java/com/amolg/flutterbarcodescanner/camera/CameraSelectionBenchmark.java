@@ -0,0 +1,37 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Times the matching of preview sizes and frame rate ranges, and the frame angle computation,
+ * against the capabilities of a typical phone camera.
+ */
+public class CameraSelectionBenchmark {
+    private static final int[] WIDTHS = {4032, 4000, 3840, 3264, 2560, 1920, 1920, 1600, 1440,
+            1280, 1280, 1280, 1024, 960, 800, 800, 720, 640, 640, 480, 352, 320, 176};
+    private static final int[] HEIGHTS = {3024, 3000, 2160, 2448, 1440, 1440, 1080, 1200, 1080,
+            960, 768, 720, 768, 720, 600, 480, 480, 480, 360, 320, 288, 240, 144};
+    // camera1 frame rate ranges, in thousandths of frames per second
+    private static final int[] FPS_MINIMUMS = {7000, 8000, 10000, 15000, 15000, 20000, 24000,
+            30000, 30000};
+    private static final int[] FPS_MAXIMUMS = {30000, 30000, 30000, 15000, 30000, 20000, 24000,
+            30000, 60000};
+
+    @Test
+    public void run() throws IOException {
+        Benchmarker benchmarker = new Benchmarker("CameraSelectionBenchmark");
+        benchmarker.measure("selectSize", i ->
+                CameraSelection.selectSize(WIDTHS, HEIGHTS, 1024 + (i & 511), 768 + (i & 255)));
+        benchmarker.measure("selectFpsRange", i ->
+                CameraSelection.selectFpsRange(FPS_MINIMUMS, FPS_MAXIMUMS, 30000 - (i & 16383)));
+        benchmarker.measure("selectFpsRangeAtMost", i ->
+                CameraSelection.selectFpsRangeAtMost(FPS_MINIMUMS, FPS_MAXIMUMS,
+                        30000 - (i & 16383)));
+        benchmarker.measure("getFrameAngle", i ->
+                CameraSelection.getDisplayOrientation(CameraSelection.getFrameAngle(
+                        90 * (i & 3), 90 * ((i >> 2) & 3), (i & 16) != 0), (i & 16) != 0));
+        benchmarker.write();
+    }
+}
@@ -0,0 +1,241 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a {@link CameraSource} through start, frame and stop cycles with a
+ * {@link FakeFrameSource}, checking that every frame is detected or dropped, and released exactly
+ * once.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CameraSourceTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Finds one item in every frame and records the frame sizes.
+     */
+    private static final class FakeDetector extends Detector<Object> {
+        final AtomicInteger mDetectCount = new AtomicInteger();
+        final AtomicInteger mReleaseCount = new AtomicInteger();
+        volatile int mLastWidth;
+        volatile int mLastHeight;
+        // copy of the image data of the last frame
+        volatile byte[] mLastImage;
+
+        @Override
+        public SparseArray<Object> detect(Frame frame) {
+            mDetectCount.incrementAndGet();
+            mLastWidth = frame.getMetadata().getWidth();
+            mLastHeight = frame.getMetadata().getHeight();
+            ByteBuffer data = frame.getGrayscaleImageData().duplicate();
+            data.rewind();
+            byte[] image = new byte[data.remaining()];
+            data.get(image);
+            mLastImage = image;
+            SparseArray<Object> detections = new SparseArray<>();
+            detections.put(0, "item");
+            return detections;
+        }
+
+        @Override
+        public void release() {
+            mReleaseCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues the delivered detections, so that the test can wait for them.
+     */
+    private static final class QueueProcessor implements Detector.Processor<Object> {
+        final BlockingQueue<Detector.Detections<Object>> mResults = new LinkedBlockingQueue<>();
+        final AtomicInteger mReleaseCount = new AtomicInteger();
+
+        @Override
+        public void receiveDetections(Detector.Detections<Object> detections) {
+            mResults.add(detections);
+        }
+
+        @Override
+        public void release() {
+            mReleaseCount.incrementAndGet();
+        }
+    }
+
+    private FakeFrameSource mFrameSource;
+    private FakeDetector mDetector;
+    private QueueProcessor mProcessor;
+    private CameraSource mCameraSource;
+
+    @Before
+    public void setUp() {
+        createCameraSource(new FakeFrameSource());
+    }
+
+    private void createCameraSource(FakeFrameSource frameSource) {
+        mFrameSource = frameSource;
+        mDetector = new FakeDetector();
+        mProcessor = new QueueProcessor();
+        mCameraSource = new CameraSource.Builder(RuntimeEnvironment.getApplication(), mDetector)
+                .setFrameSource(mFrameSource)
+                .setProcessor(mProcessor)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        mCameraSource.release();
+    }
+
+    @Test
+    public void startDetectsFramesAndStopReleasesThem() throws Exception {
+        mCameraSource.start();
+        assertEquals(1, mFrameSource.getStartCount());
+        assertEquals(4, mFrameSource.getFrameCount());
+
+        for (int i = 0; i < 3; ++i) {
+            FakeFrameSource.FakeFrame frame = mFrameSource.deliverFrame();
+            Detector.Detections<Object> detections = takeResult();
+            assertEquals(1, detections.getDetectedItems().size());
+            assertEquals(i + 1, detections.getFrameMetadata().getId());
+            assertEquals(1, frame.mReleaseCount.get());
+        }
+        assertEquals(FakeFrameSource.WIDTH, mDetector.mLastWidth);
+        assertEquals(FakeFrameSource.HEIGHT, mDetector.mLastHeight);
+
+        mCameraSource.stop();
+        assertEquals(1, mFrameSource.getStopCount());
+        assertReleasedOnce(mFrameSource.getFrames());
+        assertEquals(0, mDetector.mReleaseCount.get());
+    }
+
+    @Test
+    public void framesAfterStopAreReleasedWithoutDetection() throws Exception {
+        mCameraSource.start();
+        mFrameSource.deliverFrame();
+        takeResult();
+        mCameraSource.stop();
+
+        int detected = mDetector.mDetectCount.get();
+        FakeFrameSource.FakeFrame late = mFrameSource.deliverFrame();
+        assertEquals(1, late.mReleaseCount.get());
+        assertEquals(detected, mDetector.mDetectCount.get());
+        assertTrue(mProcessor.mResults.isEmpty());
+    }
+
+    @Test
+    public void restartContinuesFrameIds() throws Exception {
+        mCameraSource.start();
+        mFrameSource.deliverFrame();
+        assertEquals(1, takeResult().getFrameMetadata().getId());
+        mCameraSource.stop();
+
+        mCameraSource.start();
+        assertEquals(2, mFrameSource.getStartCount());
+        mFrameSource.deliverFrame();
+        assertEquals(2, takeResult().getFrameMetadata().getId());
+        mCameraSource.stop();
+
+        assertEquals(2, mFrameSource.getStopCount());
+        assertReleasedOnce(mFrameSource.getFrames());
+    }
+
+    @Test
+    public void framesOutpacingDetectionAreDroppedAndReleased() throws Exception {
+        mCameraSource.start();
+        List<FakeFrameSource.FakeFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            frames.add(mFrameSource.deliverFrame());
+        }
+        // the last frame is either detected, or still pending when the source stops
+        takeResult();
+        mCameraSource.stop();
+
+        assertReleasedOnce(frames);
+        PipelineStats stats = mCameraSource.getPipelineStats();
+        assertEquals(50, stats.getFramesReceived());
+        long handled = mDetector.mDetectCount.get() + stats.getFramesDropped();
+        assertTrue("Frames lost: " + handled, handled == 49 || handled == 50);
+    }
+
+    @Test
+    public void releaseReleasesDetectorAndProcessor() throws Exception {
+        mCameraSource.start();
+        mFrameSource.deliverFrame();
+        takeResult();
+
+        mCameraSource.release();
+        assertEquals(1, mFrameSource.getStopCount());
+        assertEquals(1, mDetector.mReleaseCount.get());
+        assertEquals(1, mProcessor.mReleaseCount.get());
+        assertReleasedOnce(mFrameSource.getFrames());
+    }
+
+    @Test
+    public void lumaOnlyFramesReachTheDetectorAsNv21() throws Exception {
+        assertRepackedAsNv21(new FakeFrameSource(FakeFrameSource.WIDTH, false));
+    }
+
+    @Test
+    public void paddedLumaFramesReachTheDetectorAsNv21() throws Exception {
+        // the luma plane of a camera2 image, with rows padded to the next 64 bytes
+        assertRepackedAsNv21(new FakeFrameSource(FakeFrameSource.WIDTH + 64, false));
+    }
+
+    /**
+     * Runs a frame of the given luma-only source through the pipeline, and checks that the
+     * detector gets a complete NV21 image: the luma without padding, followed by neutral chroma.
+     */
+    private void assertRepackedAsNv21(FakeFrameSource frameSource) throws Exception {
+        mCameraSource.release();
+        createCameraSource(frameSource);
+        mCameraSource.start();
+        mFrameSource.deliverFrame();
+        takeResult();
+        mCameraSource.stop();
+
+        byte[] image = mDetector.mLastImage;
+        int lumaSize = FakeFrameSource.WIDTH * FakeFrameSource.HEIGHT;
+        assertTrue("Image too small: " + image.length, image.length >= lumaSize * 3 / 2);
+        for (int i = 0; i < lumaSize; ++i) {
+            assertEquals(FakeFrameSource.LUMA, image[i]);
+        }
+        for (int i = lumaSize; i < lumaSize * 3 / 2; ++i) {
+            assertEquals((byte) 128, image[i]);
+        }
+        assertReleasedOnce(mFrameSource.getFrames());
+    }
+
+    private Detector.Detections<Object> takeResult() throws InterruptedException {
+        Detector.Detections<Object> detections =
+                mProcessor.mResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue("No detections delivered", detections != null);
+        return detections;
+    }
+
+    private static void assertReleasedOnce(List<FakeFrameSource.FakeFrame> frames) {
+        for (FakeFrameSource.FakeFrame frame : frames) {
+            assertEquals(1, frame.mReleaseCount.get());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Times mapping the scan window onto the raw frame for every rotation, and copying the window
+ * region out of a 1080p frame, with and without padded rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CropRegionBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    // row stride of a luma plane padded to 64 bytes, as camera2 delivers it
+    private static final int PADDED_STRIDE = 1984;
+
+    /**
+     * A frame which is never handed back to a source.
+     */
+    private static final class StaticFrame extends SourceFrame {
+        StaticFrame(int rowStride, boolean hasChroma) {
+            super(ByteBuffer.allocateDirect(rowStride * HEIGHT * (hasChroma ? 3 : 2) / 2), WIDTH,
+                    HEIGHT, rowStride, hasChroma);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void run() throws IOException {
+        Benchmarker benchmarker = new Benchmarker("CropRegionBenchmark");
+        benchmarker.measure("toRaw", i -> {
+            RectF raw = CropRegion.toRaw(i & 3, 0.1f, 0.3f, 0.9f, 0.7f);
+            return (long) (raw.left * 1000);
+        });
+        benchmarker.measure("create", i -> {
+            CropRegion crop = CropRegion.create(WIDTH, HEIGHT, i & 3, 0.1f, 0.3f, 0.9f, 0.7f);
+            return crop.mWidth;
+        });
+
+        SourceFrame nv21 = new StaticFrame(WIDTH, true);
+        CropRegion window = CropRegion.create(WIDTH, HEIGHT, 1, 0.1f, 0.3f, 0.9f, 0.7f);
+        byte[] windowArray = new byte[window.mWidth * window.mHeight * 3 / 2];
+        benchmarker.measure("copyWindow", i -> {
+            window.copy(nv21, windowArray);
+            return windowArray[i % windowArray.length];
+        });
+
+        SourceFrame padded = new StaticFrame(PADDED_STRIDE, false);
+        CropRegion whole = CropRegion.whole(WIDTH, HEIGHT);
+        byte[] wholeArray = new byte[WIDTH * HEIGHT * 3 / 2];
+        benchmarker.measure("repackPadded", i -> {
+            whole.copy(padded, wholeArray);
+            return wholeArray[i % wholeArray.length];
+        });
+        benchmarker.write();
+    }
+}
@@ -0,0 +1,168 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.SurfaceTexture;
+import android.view.SurfaceHolder;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frame source delivering frames on demand, so that the detection pipeline of a
+ * {@link CameraSource} can be driven without a camera.  Frames are blank NV21 images by default,
+ * or luma planes with padded rows like the images of the camera2 source.  The luma is filled
+ * with {@link #LUMA}, and any row padding with zeros.
+ */
+class FakeFrameSource implements FrameSource {
+    static final int WIDTH = 64;
+    static final int HEIGHT = 48;
+    static final byte LUMA = 16;
+
+    /**
+     * A uniform frame which counts how often it was handed back.
+     */
+    static final class FakeFrame extends SourceFrame {
+        final AtomicInteger mReleaseCount = new AtomicInteger();
+
+        FakeFrame(int rowStride, boolean hasChroma) {
+            super(createImage(rowStride, hasChroma), WIDTH, HEIGHT, rowStride, hasChroma);
+        }
+
+        private static ByteBuffer createImage(int rowStride, boolean hasChroma) {
+            ByteBuffer image = ByteBuffer.allocateDirect(
+                    hasChroma ? rowStride * HEIGHT * 3 / 2 : rowStride * HEIGHT);
+            for (int row = 0; row < HEIGHT; ++row) {
+                for (int x = 0; x < WIDTH; ++x) {
+                    image.put(row * rowStride + x, LUMA);
+                }
+            }
+            return image;
+        }
+
+        @Override
+        public void release() {
+            mReleaseCount.incrementAndGet();
+        }
+    }
+
+    private final int mRowStride;
+    private final boolean mHasChroma;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private final List<FakeFrame> mFrames = new ArrayList<>();
+    private FrameListener mListener;
+    private int mFrameCount;
+    private int mStartCount;
+    private int mStopCount;
+
+    /**
+     * Creates a source of NV21 frames.
+     */
+    FakeFrameSource() {
+        this(WIDTH, true);
+    }
+
+    /**
+     * Creates a source of frames with the given luma row stride, either NV21 or luma only.
+     */
+    FakeFrameSource(int rowStride, boolean hasChroma) {
+        mRowStride = rowStride;
+        mHasChroma = hasChroma;
+    }
+
+    @Override
+    public void start(@Nullable SurfaceHolder preview, int frameCount, FrameListener listener) {
+        synchronized (mLock) {
+            mListener = listener;
+            mFrameCount = frameCount;
+            ++mStartCount;
+        }
+    }
+
+    @Override
+    public void start(SurfaceTexture preview, int frameCount, FrameListener listener) {
+        start((SurfaceHolder) null, frameCount, listener);
+    }
+
+    /**
+     * Keeps the listener, so that a frame can still be delivered after stopping, like a camera
+     * callback racing the stop.
+     */
+    @Override
+    public void stop() {
+        synchronized (mLock) {
+            ++mStopCount;
+        }
+    }
+
+    /**
+     * Delivers a new frame to the listener of the last start, as the camera callback would, and
+     * returns it.  Frames delivered before the first start are handed back right away.
+     */
+    FakeFrame deliverFrame() {
+        FakeFrame frame = new FakeFrame(mRowStride, mHasChroma);
+        FrameListener listener;
+        synchronized (mLock) {
+            mFrames.add(frame);
+            listener = mListener;
+        }
+        if (listener == null) {
+            frame.release();
+        } else {
+            listener.onFrame(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns every frame delivered so far.
+     */
+    List<FakeFrame> getFrames() {
+        synchronized (mLock) {
+            return new ArrayList<>(mFrames);
+        }
+    }
+
+    int getFrameCount() {
+        synchronized (mLock) {
+            return mFrameCount;
+        }
+    }
+
+    int getStartCount() {
+        synchronized (mLock) {
+            return mStartCount;
+        }
+    }
+
+    int getStopCount() {
+        synchronized (mLock) {
+            return mStopCount;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Size getFrameSize() {
+        synchronized (mLock) {
+            return mStartCount == 0 ? null : new Size(WIDTH, HEIGHT);
+        }
+    }
+
+    @Override
+    public int getRotation() {
+        return Frame.ROTATION_0;
+    }
+
+    @Override
+    public int getFacing() {
+        return CameraSource.CAMERA_FACING_BACK;
+    }
+}
@@ -0,0 +1,271 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.util.SparseArray;
+import android.view.SurfaceHolder;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Times the handoff of frames from the camera callback to the detection workers: how long the
+ * callback takes to publish a frame, and how long a frame waits until a worker takes it.  The
+ * frames arrive at a steady pace and the detector finds nothing at once, so the workers are idle
+ * whenever a frame arrives and the handoff latency is mostly the time to wake one up.
+ * <p/>
+ * The lock-free slot of {@link CameraSource} is compared with the handoff it replaced, where the
+ * callback and the workers shared one monitor, and the callback woke every waiting worker with
+ * notifyAll.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrameHandoffBenchmark {
+    private static final int FRAME_COUNT = 20000;
+    private static final long FRAME_INTERVAL_NANOS = 100_000L;
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * Hands out a fixed set of frames, reusing the ones the pipeline has released, so that the
+     * benchmark does not allocate per frame.
+     */
+    private static final class RecyclingFrameSource implements FrameSource {
+        final ConcurrentLinkedQueue<PooledFrame> mFreeFrames = new ConcurrentLinkedQueue<>();
+        private volatile FrameListener mListener;
+
+        @Override
+        public void start(@Nullable SurfaceHolder preview, int frameCount, FrameListener listener) {
+            mFreeFrames.clear();
+            for (int i = 0; i < frameCount; ++i) {
+                mFreeFrames.add(new PooledFrame(this));
+            }
+            mListener = listener;
+        }
+
+        @Override
+        public void start(SurfaceTexture preview, int frameCount, FrameListener listener) {
+            start((SurfaceHolder) null, frameCount, listener);
+        }
+
+        @Override
+        public void stop() {
+            mListener = null;
+        }
+
+        /**
+         * Delivers a free frame, and returns false if the pipeline holds every frame.
+         */
+        boolean deliverFrame() {
+            PooledFrame frame = mFreeFrames.poll();
+            if (frame == null) {
+                return false;
+            }
+            mListener.onFrame(frame);
+            return true;
+        }
+
+        @Override
+        public Size getFrameSize() {
+            return new Size(WIDTH, HEIGHT);
+        }
+
+        @Override
+        public int getRotation() {
+            return Frame.ROTATION_0;
+        }
+
+        @Override
+        public int getFacing() {
+            return CameraSource.CAMERA_FACING_BACK;
+        }
+    }
+
+    private static final class PooledFrame extends SourceFrame {
+        private final RecyclingFrameSource mSource;
+
+        PooledFrame(RecyclingFrameSource source) {
+            super(ByteBuffer.wrap(new byte[WIDTH * HEIGHT * 3 / 2]), WIDTH, HEIGHT, WIDTH, true);
+            mSource = source;
+        }
+
+        @Override
+        public void release() {
+            mSource.mFreeFrames.add(this);
+        }
+    }
+
+    private static final class EmptyDetector extends Detector<Object> {
+        private final SparseArray<Object> mNothing = new SparseArray<>();
+
+        @Override
+        public SparseArray<Object> detect(Frame frame) {
+            return mNothing;
+        }
+    }
+
+    /**
+     * The handoff the camera source used before the lock-free slot: the pending frame is guarded
+     * by a monitor, which the callback takes to publish a frame and notify the workers.
+     */
+    private static final class LockNotifyHandoff implements FrameSource.FrameListener {
+        private final Object mLock = new Object();
+        private final LatencyHistogram mHandoff = new LatencyHistogram();
+        private final Detector<Object> mDetector = new EmptyDetector();
+
+        // These are guarded by the lock.
+        private boolean mActive = true;
+        private SourceFrame mPendingFrame;
+        private long mPendingNanos;
+
+        @Override
+        public void onFrame(SourceFrame frame) {
+            synchronized (mLock) {
+                if (mPendingFrame != null) {
+                    mPendingFrame.release();
+                }
+                mPendingFrame = frame;
+                mPendingNanos = System.nanoTime();
+                mLock.notifyAll();
+            }
+        }
+
+        void setActive(boolean active) {
+            synchronized (mLock) {
+                mActive = active;
+                mLock.notifyAll();
+            }
+        }
+
+        /**
+         * Takes frames until deactivated, detecting on each like a detection worker.
+         */
+        void runWorker() {
+            Frame.Builder builder = new Frame.Builder();
+            while (true) {
+                SourceFrame frame;
+                synchronized (mLock) {
+                    while (mActive && mPendingFrame == null) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!mActive) {
+                        if (mPendingFrame != null) {
+                            mPendingFrame.release();
+                            mPendingFrame = null;
+                        }
+                        return;
+                    }
+                    frame = mPendingFrame;
+                    mPendingFrame = null;
+                    mHandoff.record(System.nanoTime() - mPendingNanos);
+                }
+                try {
+                    mDetector.detect(builder.setImageData(frame.mData, frame.mWidth,
+                            frame.mHeight, ImageFormat.NV21).build());
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    private static final class NullProcessor implements Detector.Processor<Object> {
+        @Override
+        public void receiveDetections(Detector.Detections<Object> detections) {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void run() throws IOException, InterruptedException {
+        Benchmarker benchmarker = new Benchmarker("FrameHandoffBenchmark");
+        for (int workers = 1; workers <= 2; ++workers) {
+            runLockFree(benchmarker, workers);
+            runLockNotify(benchmarker, workers);
+        }
+        benchmarker.write();
+    }
+
+    /**
+     * Feeds the frames through the lock-free slot of a camera source.
+     */
+    private static void runLockFree(Benchmarker benchmarker, int workers) throws IOException {
+        RecyclingFrameSource source = new RecyclingFrameSource();
+        CameraSource cameraSource = new CameraSource.Builder(RuntimeEnvironment.getApplication(),
+                new EmptyDetector())
+                .setFrameSource(source)
+                .setProcessor(new NullProcessor())
+                .setDetectionWorkers(workers, EmptyDetector::new)
+                .build();
+        LatencyHistogram publish = new LatencyHistogram();
+        cameraSource.start();
+        feed(source, publish);
+        cameraSource.release();
+
+        String name = "lockFree.workers" + workers;
+        benchmarker.record(name + ".publish", publish);
+        benchmarker.record(name + ".handoff", cameraSource.getPipelineStats().getHandoffLatency());
+    }
+
+    /**
+     * Feeds the frames through the monitor based handoff.
+     */
+    private static void runLockNotify(Benchmarker benchmarker, int workers)
+            throws InterruptedException {
+        RecyclingFrameSource source = new RecyclingFrameSource();
+        LockNotifyHandoff handoff = new LockNotifyHandoff();
+        // as many frames as the camera source gives the same number of workers
+        source.start((SurfaceHolder) null, workers + 3, handoff);
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; ++i) {
+            threads[i] = new Thread(handoff::runWorker, "LockNotify-Detect-" + i);
+            threads[i].start();
+        }
+        LatencyHistogram publish = new LatencyHistogram();
+        feed(source, publish);
+        handoff.setActive(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        source.stop();
+
+        String name = "lockNotify.workers" + workers;
+        benchmarker.record(name + ".publish", publish);
+        benchmarker.record(name + ".handoff", handoff.mHandoff);
+    }
+
+    /**
+     * Delivers the frames at a steady pace, recording how long each delivery takes.
+     */
+    private static void feed(RecyclingFrameSource source, LatencyHistogram publish) {
+        long next = System.nanoTime();
+        for (int i = 0; i < FRAME_COUNT; ++i) {
+            while (System.nanoTime() < next) {
+                Thread.onSpinWait();
+            }
+            long start = System.nanoTime();
+            if (source.deliverFrame()) {
+                publish.record(System.nanoTime() - start);
+            }
+            next = start + FRAME_INTERVAL_NANOS;
+        }
+    }
+}
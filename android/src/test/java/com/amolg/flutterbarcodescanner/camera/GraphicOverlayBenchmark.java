@@ -0,0 +1,65 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import com.amolg.flutterbarcodescanner.FlutterBarcodeScannerPlugin;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+/**
+ * Times the overlay geometry: laying out the scan window for a new view size, mapping detection
+ * coordinates onto the view, and reporting the scan window to the camera source.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GraphicOverlayBenchmark {
+    /**
+     * A graphic which only maps a box, as the barcode graphics do before drawing it.
+     */
+    private static final class BoxGraphic extends GraphicOverlay.Graphic {
+        BoxGraphic(GraphicOverlay<?> overlay) {
+            super(overlay);
+        }
+
+        float map(float left, float top, float right, float bottom) {
+            return translateX(left) + translateY(top) + translateX(right) + translateY(bottom);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+        }
+    }
+
+    @Test
+    public void run() throws IOException {
+        FlutterBarcodeScannerPlugin.lineColor = "#ff6666";
+        GraphicOverlay<BoxGraphic> overlay =
+                new GraphicOverlay<>(RuntimeEnvironment.getApplication(), null);
+        overlay.layout(0, 0, 1080, 1920);
+        overlay.setCameraInfo(1920, 1080, CameraSource.CAMERA_FACING_BACK);
+        BoxGraphic graphic = new BoxGraphic(overlay);
+
+        Benchmarker benchmarker = new Benchmarker("GraphicOverlayBenchmark");
+        benchmarker.measure("layout", i -> {
+            // alternate between portrait and landscape, so that every layout changes the size
+            if ((i & 1) == 0) {
+                overlay.layout(0, 0, 1920, 1080);
+            } else {
+                overlay.layout(0, 0, 1080, 1920);
+            }
+            return overlay.getWidth();
+        });
+        benchmarker.measure("translate", i ->
+                (long) graphic.map(i & 1023, 200.0f, (i & 1023) + 300.0f, 500.0f));
+        benchmarker.measure("getScanWindow", i -> {
+            RectF window = overlay.getScanWindow();
+            return (long) (window.width() * 1000);
+        });
+        benchmarker.write();
+    }
+}
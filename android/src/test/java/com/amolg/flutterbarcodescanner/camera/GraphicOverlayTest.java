@@ -0,0 +1,135 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Looper;
+
+import com.amolg.flutterbarcodescanner.FlutterBarcodeScannerPlugin;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowChoreographer;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * Runs the scan line animation of a {@link GraphicOverlay} on the Robolectric clock, checking
+ * that it redraws at most once per display frame, only while it runs, and that drawing does not
+ * allocate.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GraphicOverlayTest {
+    private static final Duration FRAME_INTERVAL = Duration.ofMillis(16);
+    private static final Duration ANIMATION_PERIOD = Duration.ofSeconds(1);
+    private static final int DRAW_COUNT = 1000;
+
+    /**
+     * Counts the redraw requests.
+     */
+    private static final class CountingOverlay extends GraphicOverlay<GraphicOverlay.Graphic> {
+        int mInvalidations;
+
+        CountingOverlay(Context context) {
+            super(context, null);
+        }
+
+        @Override
+        public void postInvalidateOnAnimation() {
+            ++mInvalidations;
+            super.postInvalidateOnAnimation();
+        }
+    }
+
+    /**
+     * Counts the shapes drawn, instead of drawing them.
+     */
+    private static final class CountingCanvas extends Canvas {
+        int mRects;
+        int mLines;
+
+        @Override
+        public void drawRect(RectF rect, Paint paint) {
+            ++mRects;
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+            ++mLines;
+        }
+    }
+
+    private CountingOverlay mOverlay;
+
+    @Before
+    public void setUp() {
+        FlutterBarcodeScannerPlugin.lineColor = "#ff6666";
+        ShadowChoreographer.setFrameDelay(FRAME_INTERVAL);
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        mOverlay = new CountingOverlay(activity);
+        activity.setContentView(mOverlay);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void animationRedrawsAtMostOncePerFrame() {
+        assertTrue("Overlay not laid out", mOverlay.getHeight() > 0);
+        mOverlay.mInvalidations = 0;
+        shadowOf(Looper.getMainLooper()).idleFor(ANIMATION_PERIOD);
+
+        long frames = ANIMATION_PERIOD.toMillis() / FRAME_INTERVAL.toMillis();
+        assertTrue("Too many redraws: " + mOverlay.mInvalidations,
+                mOverlay.mInvalidations <= frames + 1);
+        // the line moves by more than a pixel per frame, so nearly every frame is redrawn
+        assertTrue("Too few redraws: " + mOverlay.mInvalidations,
+                mOverlay.mInvalidations >= frames / 2);
+    }
+
+    @Test
+    public void pausedAnimationDoesNotRedraw() {
+        mOverlay.setAnimationPaused(true);
+        shadowOf(Looper.getMainLooper()).idle();
+        mOverlay.mInvalidations = 0;
+        shadowOf(Looper.getMainLooper()).idleFor(ANIMATION_PERIOD);
+        assertEquals(0, mOverlay.mInvalidations);
+
+        mOverlay.setAnimationPaused(false);
+        shadowOf(Looper.getMainLooper()).idleFor(ANIMATION_PERIOD);
+        assertTrue("Animation did not resume", mOverlay.mInvalidations > 0);
+    }
+
+    @Test
+    public void drawingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        CountingCanvas canvas = new CountingCanvas();
+        // warm up, so that class loading and the first calls do not count
+        for (int i = 0; i < DRAW_COUNT; ++i) {
+            mOverlay.onDraw(canvas);
+        }
+
+        // what measuring an empty stretch of code allocates by itself
+        long start = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - start;
+        start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < DRAW_COUNT; ++i) {
+            mOverlay.onDraw(canvas);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+
+        assertEquals(2 * DRAW_COUNT, canvas.mRects);
+        assertEquals(2 * DRAW_COUNT, canvas.mLines);
+        assertEquals(overhead, allocated);
+    }
+}
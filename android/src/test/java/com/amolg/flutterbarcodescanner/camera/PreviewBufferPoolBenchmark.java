@@ -0,0 +1,57 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.hardware.Camera;
+
+import com.google.android.gms.common.images.Size;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+/**
+ * Times the preview buffer pool on the paths taken for every frame, i.e., looking up the buffer
+ * the camera filled and handing it back, as well as the checks made on every camera start.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SuppressWarnings("deprecation")
+public class PreviewBufferPoolBenchmark {
+    private static final int DEPTH = 6;
+    // the camera is reopened this often, as the test camera keeps every queued buffer
+    private static final int REATTACH_INTERVAL = 4096;
+
+    @Test
+    public void run() throws IOException {
+        Benchmarker benchmarker = new Benchmarker("PreviewBufferPoolBenchmark");
+        Size size = new Size(1920, 1080);
+        PreviewBufferPool pool = new PreviewBufferPool(DEPTH);
+        pool.allocate(size, DEPTH);
+        Camera[] camera = {Camera.open()};
+        pool.attach(camera[0]);
+        // the arrays the camera would fill, as queued by the pool
+        byte[][] arrays = shadowOf(camera[0]).getAddedCallbackBuffers().toArray(new byte[0][]);
+
+        benchmarker.measure("acquireRelease", i -> {
+            if (i % REATTACH_INTERVAL == 0) {
+                pool.detach();
+                camera[0].release();
+                camera[0] = Camera.open();
+                pool.attach(camera[0]);
+            }
+            PreviewBufferPool.Buffer buffer = pool.acquire(arrays[i % DEPTH]);
+            buffer.release();
+            return buffer.mIndex;
+        });
+        benchmarker.measure("acquireForeign", i -> pool.acquire(null) == null ? 0 : 1);
+        benchmarker.measure("allocateUnchanged", i -> {
+            pool.allocate(size, DEPTH);
+            return pool.getCapacity();
+        });
+        pool.detach();
+        camera[0].release();
+        benchmarker.write();
+    }
+}
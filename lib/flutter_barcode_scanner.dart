@@ -1,5 +1,6 @@
 import 'dart:async';
 import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart' hide Color;
@@ -15,6 +16,116 @@ Future<String> svgAssetToBase64(String assetName) async {
 /// Scan mode which is either QR code or BARCODE
 enum ScanMode { QR, BARCODE, DEFAULT }
 
+/// Barcode symbologies the detector can be restricted to.
+///
+/// Searching for fewer formats makes every frame cheaper to decode.
+enum BarcodeFormat {
+  CODE_128,
+  CODE_39,
+  CODE_93,
+  CODABAR,
+  DATA_MATRIX,
+  EAN_13,
+  EAN_8,
+  ITF,
+  QR_CODE,
+  UPC_A,
+  UPC_E,
+  PDF417,
+  AZTEC,
+}
+
+/// What to do with continuous scan results when the delivery queue is full.
+enum OverflowPolicy {
+  /// Drop the oldest queued result.
+  DROP_OLDEST,
+
+  /// Drop the new result.
+  DROP_NEWEST,
+
+  /// Hold up detection until the queue has room again.
+  BLOCK,
+}
+
+/// The barcodes found on one image by [FlutterBarcodeScanner.scanImageFiles].
+class ImageScanResult {
+  /// Position of the image in the list of paths.
+  final int index;
+
+  /// Path or content URI of the image.
+  final String path;
+
+  /// Raw values of the barcodes found, empty if there are none.
+  final List<String> values;
+
+  /// Format names of the barcodes found, matching [values].
+  final List<String> formats;
+
+  /// Why the image could not be decoded, or null.
+  final String? error;
+
+  ImageScanResult._fromMap(Map<dynamic, dynamic> map)
+      : index = map['index'] as int,
+        path = map['path'] as String,
+        values = List<String>.from(map['values'] as List),
+        formats = List<String>.from(map['formats'] as List),
+        error = map['error'] as String?;
+}
+
+/// A barcode found by [FlutterBarcodeScanner.scanBarcodeResult] or
+/// [FlutterBarcodeScanner.getBarcodeResultStream], on Android only.
+///
+/// Coordinates are in camera frame pixels.
+class BarcodeResult {
+  /// Format name, e.g. `QR_CODE`, as in [BarcodeFormat].
+  final String format;
+
+  /// Type of the encoded value, e.g. `TEXT`, `URL` or `WIFI`; `UNKNOWN` for
+  /// values without a known structure.
+  final String valueType;
+
+  /// The value decoded as a string.
+  final String? rawValue;
+
+  /// The value in a form meant for display.
+  final String? displayValue;
+
+  /// The encoded bytes, intact also for binary payloads.
+  final Uint8List? rawBytes;
+
+  /// Corner points of the barcode, clockwise from the top left corner.
+  final List<Offset> corners;
+
+  /// Bounding box of the barcode.
+  final Rect? boundingBox;
+
+  /// Id of the camera frame the barcode was first detected on, or -1.
+  final int frameId;
+
+  /// Timestamp of that frame in milliseconds since the camera started, or -1.
+  final int timestampMillis;
+
+  BarcodeResult._fromMap(Map<dynamic, dynamic> map)
+      : format = map['format'] as String,
+        valueType = map['valueType'] as String,
+        rawValue = map['rawValue'] as String?,
+        displayValue = map['displayValue'] as String?,
+        rawBytes = map['rawBytes'] as Uint8List?,
+        corners = (map['corners'] as List)
+            .map((point) => Offset(
+                (point[0] as int).toDouble(), (point[1] as int).toDouble()))
+            .toList(),
+        boundingBox = map['boundingBox'] == null
+            ? null
+            : Rect.fromLTRB(
+                (map['boundingBox']['left'] as int).toDouble(),
+                (map['boundingBox']['top'] as int).toDouble(),
+                (map['boundingBox']['right'] as int).toDouble(),
+                (map['boundingBox']['bottom'] as int).toDouble()),
+        frameId = map['frameId'] as int,
+        timestampMillis = map['timestampMillis'] as int;
+}
+
 /// Provides access to the barcode scanner.
 ///
 /// This class is an interface between the native Android and iOS classes and a
@@ -26,21 +137,308 @@ class FlutterBarcodeScanner {
   static const EventChannel _eventChannel =
       EventChannel('flutter_barcode_scanner_receiver');
 
+  static const EventChannel _imageEventChannel =
+      EventChannel('flutter_barcode_scanner_images');
+
+  static const EventChannel _statsEventChannel =
+      EventChannel('flutter_barcode_scanner_stats');
+
   static Stream? _onBarcodeReceiver;
+  static Stream? _onImageResults;
+  static int _nextBatchId = 0;
 
   /// Scan with the camera until a barcode is identified, then return.
   ///
   /// Shows a scan line with [lineColor] over a scan window. A flash icon is
   /// displayed if [isShowFlashIcon] is true. The text of the cancel button can
+  ///
+  /// The scan window is [scanWindowSize] logical pixels large and moved by
+  /// [scanWindowOffset] from the center of the preview. On Android only the
+  /// part of the camera image under the window is decoded.
+  ///
+  /// The detector only looks for the given [formats]; without them, [scanMode]
+  /// picks the formats (QR codes only, or linear barcodes and PDF417).
+  ///
+  /// With [autoZoom], the camera zooms in on barcodes too small to decode
+  /// reliably and back out once they leave the view. With [autoTorch], the
+  /// torch is turned on in low light and off again once it gets brighter; the
+  /// flash icon follows. Both are Android only.
   static Future<String> scanBarcode({
     Color? lineColor,
     bool? isShowFlashIcon,
     ScanMode? scanMode,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    bool autoZoom = false,
+    bool autoTorch = false,
   }) async {
-    final lineColorHex = lineColor != null
-        ? '#${lineColor.value.toRadixString(16).padLeft(8, '0').substring(2)}'
-        : '#ff6666';
+    final params = await _singleScanParams(lineColor, isShowFlashIcon, scanMode,
+        scanWindowSize, scanWindowOffset, formats, autoZoom, autoTorch, false);
+    return await _channel.invokeMethod('scanBarcode', params) ?? '';
+  }
+
+  /// Scans like [scanBarcode], but returns the barcode as a [BarcodeResult]
+  /// with its format, value type, raw bytes and position, on Android only.
+  ///
+  /// Returns null if the scan was cancelled.
+  static Future<BarcodeResult?> scanBarcodeResult({
+    Color? lineColor,
+    bool? isShowFlashIcon,
+    ScanMode? scanMode,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    bool autoZoom = false,
+    bool autoTorch = false,
+  }) async {
+    final params = await _singleScanParams(lineColor, isShowFlashIcon, scanMode,
+        scanWindowSize, scanWindowOffset, formats, autoZoom, autoTorch, true);
+    final result = await _channel.invokeMethod('scanBarcode', params);
+    return result is Map ? BarcodeResult._fromMap(result) : null;
+  }
 
+  /// Returns a continuous stream of barcode scans until the user cancels the
+  /// operation.
+  ///
+  /// Shows a scan line with [lineColor] over a scan window. A flash icon is
+  /// displayed if [isShowFlashIcon] is true. The text of the cancel button can
+  /// detected barcode strings.
+  ///
+  /// A value seen again within [duplicateCooldown] of its last sighting is not
+  /// sent; every sighting restarts the cooldown. The last [duplicateCacheSize]
+  /// values are remembered (64 by default). Without a cooldown every detection
+  /// is sent.
+  ///
+  /// Results are sent from the platform in batches of up to [batchSize] (16 by
+  /// default), at the latest [batchWindow] after the first result of a batch
+  /// (immediately by default), and emitted one by one on the stream. Up to
+  /// [queueCapacity] results (256 by default) wait for delivery; beyond that,
+  /// [overflowPolicy] applies.
+  ///
+  /// With [autoZoom], the camera zooms in on barcodes too small to decode
+  /// reliably and back out once they leave the view. With [autoTorch], the
+  /// torch is turned on in low light and off again once it gets brighter; the
+  /// flash icon follows. Both are Android only.
+  static Stream? getBarcodeStreamReceiver({
+    Color? lineColor,
+    bool? isShowFlashIcon,
+    ScanMode? scanMode,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    Duration? duplicateCooldown,
+    int? duplicateCacheSize,
+    int? batchSize,
+    Duration? batchWindow,
+    int? queueCapacity,
+    OverflowPolicy? overflowPolicy,
+    bool autoZoom = false,
+    bool autoTorch = false,
+  }) {
+    // Invoke method to open camera, and then create an event channel which will
+    // return a stream
+    _channel.invokeMethod(
+        'scanBarcode',
+        _continuousScanParams(
+            lineColor,
+            isShowFlashIcon,
+            scanMode,
+            scanWindowSize,
+            scanWindowOffset,
+            formats,
+            duplicateCooldown,
+            duplicateCacheSize,
+            batchSize,
+            batchWindow,
+            queueCapacity,
+            overflowPolicy,
+            autoZoom,
+            autoTorch,
+            false));
+    return _barcodeEvents();
+  }
+
+  /// Scans continuously like [getBarcodeStreamReceiver], but emits every
+  /// barcode as a [BarcodeResult] with its format, value type, raw bytes and
+  /// position, on Android only.
+  static Stream<BarcodeResult> getBarcodeResultStream({
+    Color? lineColor,
+    bool? isShowFlashIcon,
+    ScanMode? scanMode,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    Duration? duplicateCooldown,
+    int? duplicateCacheSize,
+    int? batchSize,
+    Duration? batchWindow,
+    int? queueCapacity,
+    OverflowPolicy? overflowPolicy,
+    bool autoZoom = false,
+    bool autoTorch = false,
+  }) {
+    _channel.invokeMethod(
+        'scanBarcode',
+        _continuousScanParams(
+            lineColor,
+            isShowFlashIcon,
+            scanMode,
+            scanWindowSize,
+            scanWindowOffset,
+            formats,
+            duplicateCooldown,
+            duplicateCacheSize,
+            batchSize,
+            batchWindow,
+            queueCapacity,
+            overflowPolicy,
+            autoZoom,
+            autoTorch,
+            true));
+    return _barcodeEvents()
+        .where((event) => event is Map)
+        .map((event) => BarcodeResult._fromMap(event as Map));
+  }
+
+  /// Returns the continuous scan results, flattened from the batches sent by
+  /// the platform.
+  static Stream _barcodeEvents() {
+    return _onBarcodeReceiver ??= _eventChannel
+        .receiveBroadcastStream()
+        .expand((event) => event is List ? event : [event]);
+  }
+
+  /// Switches the scanner on screen to [scanMode], or to [formats] if given,
+  /// on Android only.
+  ///
+  /// The scan window is reshaped and the detector swapped without restarting
+  /// the camera, e.g., during a continuous scan. Returns false if no scanner
+  /// is on screen.
+  static Future<bool> setScanMode(ScanMode scanMode,
+      {List<BarcodeFormat>? formats}) async {
+    final applied =
+        await _channel.invokeMethod<bool>('setScanMode', <String, dynamic>{
+      'scanMode': scanMode.index,
+      if (formats != null) 'formats': formats.map((f) => f.name).toList(),
+    });
+    return applied ?? false;
+  }
+
+  /// Prepares the next [scanBarcode] or [scanBarcodeResult] ahead of time,
+  /// on Android only.
+  ///
+  /// Builds the detector, opens the back camera and allocates the preview
+  /// buffers in the background, so that a following scan with the same
+  /// [scanMode] and [formats] shows a decoding preview almost immediately.
+  /// The camera stays open for at most [idleTimeout] if no scan takes it over;
+  /// [releasePreparedScanner] closes it earlier.
+  ///
+  /// Returns the time preparing took in milliseconds and the preview size, or
+  /// null if the camera permission has not been granted yet.
+  static Future<Map<String, dynamic>?> prepareScanner({
+    ScanMode? scanMode,
+    List<BarcodeFormat>? formats,
+    Duration idleTimeout = const Duration(seconds: 30),
+  }) {
+    return _channel.invokeMapMethod<String, dynamic>(
+        'prepareScanner', <String, dynamic>{
+      'scanMode': scanMode?.index ?? ScanMode.BARCODE.index,
+      if (formats != null) 'formats': formats.map((f) => f.name).toList(),
+      'idleTimeoutMillis': idleTimeout.inMilliseconds,
+    });
+  }
+
+  /// Releases the scanner prepared by [prepareScanner], closing the camera.
+  static Future<void> releasePreparedScanner() {
+    return _channel.invokeMethod('releasePreparedScanner');
+  }
+
+  /// Scans a batch of images for barcodes, on Android only.
+  ///
+  /// [paths] are file paths or content URIs, e.g., from an image picker.
+  /// The images are decoded in the background in parallel, and the result of
+  /// each one is emitted as soon as it is ready, so results may arrive out of
+  /// order. The stream closes once every image has been handled. Cancelling
+  /// the subscription stops the batch.
+  ///
+  /// The detector is restricted to [formats] or, without them, to the formats
+  /// of [scanMode]; by default all formats are searched.
+  static Stream<ImageScanResult> scanImageFiles(
+    List<String> paths, {
+    ScanMode? scanMode,
+    List<BarcodeFormat>? formats,
+  }) {
+    final batchId = _nextBatchId++;
+    final controller = StreamController<ImageScanResult>();
+    StreamSubscription? subscription;
+
+    controller.onListen = () {
+      _onImageResults ??= _imageEventChannel.receiveBroadcastStream();
+      subscription = _onImageResults!.listen((event) {
+        if (event is Map && event['batchId'] == batchId) {
+          controller.add(ImageScanResult._fromMap(event));
+        }
+      });
+
+      final params = <String, dynamic>{
+        'batchId': batchId,
+        'paths': paths,
+        'scanMode': scanMode?.index ?? ScanMode.DEFAULT.index,
+        if (formats != null) 'formats': formats.map((f) => f.name).toList(),
+      };
+      _channel.invokeMethod('scanImageFiles', params).then((_) {}, onError: (e) {
+        controller.addError(e);
+      }).whenComplete(() async {
+        await subscription?.cancel();
+        await controller.close();
+      });
+    };
+    controller.onCancel = () async {
+      await subscription?.cancel();
+      await _channel.invokeMethod('cancelImageScan', {'batchId': batchId});
+    };
+    return controller.stream;
+  }
+
+  /// Returns the scanner statistics of this app process, on Android only.
+  ///
+  /// The map holds the frame counters (received, dropped, processed,
+  /// detector errors) and latency histograms (handoff, detect, deliver, total;
+  /// mean, p50, p90, p99 and max in microseconds) of the camera pipeline. It
+  /// also holds preview buffer counters, the decode pyramid hit rates, the
+  /// decode times per barcode format, the state of the frame rate governor,
+  /// the share of frames skipped as too blurry, how often detectors were
+  /// reused across scans, how many camera parameter changes were merged, the
+  /// focus sweeps with their time to focus lock, the steps taken by the
+  /// automatic zoom, and the scene brightness with the exposure and torch
+  /// changes made for it.
+  static Future<Map<String, dynamic>> getScannerStats() async {
+    final stats = await _channel.invokeMethod('getScannerStats');
+    return Map<String, dynamic>.from(stats as Map? ?? const {});
+  }
+
+  /// Emits the scanner statistics of [getScannerStats] every [interval], on
+  /// Android only.
+  static Stream<Map<String, dynamic>> scannerStatsStream({
+    Duration interval = const Duration(seconds: 1),
+  }) {
+    return _statsEventChannel
+        .receiveBroadcastStream(interval.inMilliseconds)
+        .map((stats) => Map<String, dynamic>.from(stats as Map));
+  }
+
+  static Future<Map<String, dynamic>> _singleScanParams(
+    Color? lineColor,
+    bool? isShowFlashIcon,
+    ScanMode? scanMode,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    bool autoZoom,
+    bool autoTorch,
+    bool structuredResults,
+  ) async {
     // Helper để convert asset sang base64, trả về null nếu path rỗng
     Future<String?> _toBase64(String? assetPath) async {
       if (assetPath == null || assetPath.isEmpty) return null;
@@ -54,46 +452,199 @@ class FlutterBarcodeScanner {
       _toBase64('camera-switch.svg'),
     ]);
 
-    final params = <String, dynamic>{
-      'lineColor': lineColorHex,
+    return <String, dynamic>{
+      'lineColor': _lineColorHex(lineColor),
       'isShowFlashIcon': isShowFlashIcon ?? true,
       'isContinuousScan': false,
+      'structuredResults': structuredResults,
+      'autoZoom': autoZoom,
+      'autoTorch': autoTorch,
       'scanMode': scanMode?.index ?? ScanMode.BARCODE.index,
       'flashOffIcon': results[0],
       'flashOnIcon': results[1],
       'cancelButtonIcon': results[2],
       'cameraSwitchIcon': results[3],
+      ..._scanWindowParams(scanWindowSize, scanWindowOffset),
+      if (formats != null) 'formats': formats.map((f) => f.name).toList(),
     };
-
-    return await _channel.invokeMethod('scanBarcode', params) ?? '';
   }
 
-  /// Returns a continuous stream of barcode scans until the user cancels the
-  /// operation.
-  ///
-  /// Shows a scan line with [lineColor] over a scan window. A flash icon is
-  /// displayed if [isShowFlashIcon] is true. The text of the cancel button can
-  /// detected barcode strings.
-  static Stream? getBarcodeStreamReceiver({
+  static Map<String, dynamic> _continuousScanParams(
     Color? lineColor,
     bool? isShowFlashIcon,
     ScanMode? scanMode,
-  }) {
-    final lineColorHex = lineColor != null
-        ? '#${lineColor.value.toRadixString(16).padLeft(8, '0').substring(2)}'
-        : '#ff6666'; // Default color if none is provided
-    // Pass params to the plugin
-    Map params = <String, dynamic>{
-      'lineColor': lineColorHex,
+    Size? scanWindowSize,
+    Offset? scanWindowOffset,
+    List<BarcodeFormat>? formats,
+    Duration? duplicateCooldown,
+    int? duplicateCacheSize,
+    int? batchSize,
+    Duration? batchWindow,
+    int? queueCapacity,
+    OverflowPolicy? overflowPolicy,
+    bool autoZoom,
+    bool autoTorch,
+    bool structuredResults,
+  ) {
+    return <String, dynamic>{
+      'lineColor': _lineColorHex(lineColor),
       'isShowFlashIcon': isShowFlashIcon ?? true,
       'isContinuousScan': true,
+      'structuredResults': structuredResults,
+      'autoZoom': autoZoom,
+      'autoTorch': autoTorch,
       'scanMode': scanMode?.index ?? ScanMode.BARCODE.index,
+      ..._scanWindowParams(scanWindowSize, scanWindowOffset),
+      if (formats != null) 'formats': formats.map((f) => f.name).toList(),
+      if (duplicateCooldown != null)
+        'duplicateCooldownMillis': duplicateCooldown.inMilliseconds,
+      if (duplicateCacheSize != null) 'duplicateCacheSize': duplicateCacheSize,
+      if (batchSize != null) 'batchSize': batchSize,
+      if (batchWindow != null) 'batchWindowMillis': batchWindow.inMilliseconds,
+      if (queueCapacity != null) 'queueCapacity': queueCapacity,
+      if (overflowPolicy != null) 'overflowPolicy': overflowPolicy.name,
     };
+  }
 
-    // Invoke method to open camera, and then create an event channel which will
-    // return a stream
-    _channel.invokeMethod('scanBarcode', params);
-    _onBarcodeReceiver ??= _eventChannel.receiveBroadcastStream();
-    return _onBarcodeReceiver;
+  static String _lineColorHex(Color? lineColor) {
+    return lineColor != null
+        ? '#${lineColor.value.toRadixString(16).padLeft(8, '0').substring(2)}'
+        : '#ff6666'; // Default color if none is provided
+  }
+
+  static Map<String, dynamic> _scanWindowParams(Size? size, Offset? offset) {
+    return <String, dynamic>{
+      if (size != null) 'scanWindowWidth': size.width,
+      if (size != null) 'scanWindowHeight': size.height,
+      if (offset != null) 'scanWindowOffsetX': offset.dx,
+      if (offset != null) 'scanWindowOffsetY': offset.dy,
+    };
+  }
+}
+
+/// Which camera an embedded scanner uses.
+enum CameraFacing { back, front }
+
+/// Controls a scanner embedded in the widget tree, on Android only.
+///
+/// The camera preview is rendered into a texture shown by
+/// [BarcodeScannerView], so that the scanner can be combined with other
+/// widgets instead of covering the screen. Call [create], then [start]; every
+/// newly detected barcode is emitted on [results]. [pause] keeps the preview
+/// running but stops detection. [dispose] closes the camera and frees the
+/// texture. With [autoZoom], the camera zooms in on small barcodes; with
+/// [autoTorch], the torch is turned on in low light.
+class BarcodeScannerController {
+  final ScanMode scanMode;
+  final List<BarcodeFormat>? formats;
+  final CameraFacing facing;
+  final bool autoZoom;
+  final bool autoTorch;
+  final Duration? duplicateCooldown;
+  final int? duplicateCacheSize;
+
+  int? _textureId;
+  Size? _previewSize;
+
+  BarcodeScannerController({
+    this.scanMode = ScanMode.BARCODE,
+    this.formats,
+    this.facing = CameraFacing.back,
+    this.autoZoom = false,
+    this.autoTorch = false,
+    this.duplicateCooldown,
+    this.duplicateCacheSize,
+  });
+
+  /// Id of the texture showing the preview, or null before [create].
+  int? get textureId => _textureId;
+
+  /// Size of the camera frames, or null until the scanner has started.
+  Size? get previewSize => _previewSize;
+
+  /// The barcodes found by the scanner.
+  Stream<BarcodeResult> get results => FlutterBarcodeScanner._barcodeEvents()
+      .where((event) => event is Map)
+      .map((event) => BarcodeResult._fromMap(event as Map));
+
+  /// Creates the scanner and its texture, without opening the camera.
+  Future<void> create() async {
+    if (_textureId != null) {
+      return;
+    }
+    _textureId = await FlutterBarcodeScanner._channel
+        .invokeMethod<int>('createScanner', <String, dynamic>{
+      'scanMode': scanMode.index,
+      if (formats != null) 'formats': formats!.map((f) => f.name).toList(),
+      'facing': facing.index,
+      'autoZoom': autoZoom,
+      'autoTorch': autoTorch,
+      'structuredResults': true,
+      if (duplicateCooldown != null)
+        'duplicateCooldownMillis': duplicateCooldown!.inMilliseconds,
+      if (duplicateCacheSize != null) 'duplicateCacheSize': duplicateCacheSize,
+    });
+  }
+
+  /// Opens the camera and starts scanning, asking for the camera permission
+  /// if needed.
+  Future<void> start() async {
+    await create();
+    final description = await FlutterBarcodeScanner._channel
+        .invokeMapMethod<String, dynamic>(
+            'startScanner', <String, dynamic>{'textureId': _textureId});
+    if (description != null && description['previewWidth'] != null) {
+      _previewSize = Size((description['previewWidth'] as int).toDouble(),
+          (description['previewHeight'] as int).toDouble());
+    }
+  }
+
+  /// Closes the camera; [start] opens it again.
+  Future<void> stop() => _invoke('stopScanner');
+
+  /// Stops detection while keeping the preview running.
+  Future<void> pause() =>
+      _invoke('pauseScanner', <String, dynamic>{'paused': true});
+
+  /// Resumes detection after [pause].
+  Future<void> resume() =>
+      _invoke('pauseScanner', <String, dynamic>{'paused': false});
+
+  /// Closes the camera and frees the texture.
+  Future<void> dispose() async {
+    await _invoke('disposeScanner');
+    _textureId = null;
+    _previewSize = null;
+  }
+
+  Future<void> _invoke(String method,
+      [Map<String, dynamic> arguments = const <String, dynamic>{}]) async {
+    if (_textureId == null) {
+      return;
+    }
+    await FlutterBarcodeScanner._channel.invokeMethod(
+        method, <String, dynamic>{...arguments, 'textureId': _textureId});
+  }
+}
+
+/// Shows the camera preview of a started [BarcodeScannerController].
+class BarcodeScannerView extends StatelessWidget {
+  final BarcodeScannerController controller;
+
+  const BarcodeScannerView({Key? key, required this.controller})
+      : super(key: key);
+
+  @override
+  Widget build(BuildContext context) {
+    final textureId = controller.textureId;
+    if (textureId == null) {
+      return const SizedBox.shrink();
+    }
+    final size = controller.previewSize;
+    final preview = Texture(textureId: textureId);
+    // camera frames are landscape, the preview is shown in portrait
+    return size == null
+        ? preview
+        : AspectRatio(aspectRatio: size.height / size.width, child: preview);
   }
 }